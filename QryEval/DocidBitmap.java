@@ -0,0 +1,289 @@
+import java.util.Arrays;
+
+/**
+ *  A compressed set of internal document ids, organized like a Roaring
+ *  bitmap.  Docids are split into chunks of 65536 by their high 16 bits.
+ *  A sparse chunk is stored as a sorted array of its low 16 bits, and a
+ *  dense chunk (more than ARRAY_MAX docids) as a 65536-bit bitmap, so
+ *  Boolean operators can use word-level AND and OR operations.
+ *  <p>
+ *  DocidBitmaps are immutable once built; and and or return new objects,
+ *  so bitmaps may be shared, for example by a cache of term bitmaps.
+ *  </p>
+ */
+public class DocidBitmap {
+
+	//  --------------- Constants and variables ---------------------
+
+	private static final int ARRAY_MAX = 4096;
+	private static final int BITMAP_WORDS = 1024;
+
+	private int numOfChunks = 0;
+	private char[] keys;	// The high 16 bits of the docids in each chunk
+	private char[][] arrays;	// Sorted low 16 bits, or null for a bitmap chunk
+	private long[][] bitmaps;	// Bits of the low 16 bits, or null for an array chunk
+	private int[] cardinalities;	// The number of docids in each chunk
+
+	//  --------------- Methods ---------------------------------------
+
+	private DocidBitmap(int capacity) {
+		capacity = Math.max(1, capacity);
+		this.keys = new char[capacity];
+		this.arrays = new char[capacity][];
+		this.bitmaps = new long[capacity][];
+		this.cardinalities = new int[capacity];
+	}
+
+	/**
+	 *  Build a bitmap from the first n entries of a sorted array of docids.
+	 *  @param docids Internal document ids in increasing order.
+	 *  @param n The number of docids to use.
+	 *  @return The bitmap.
+	 */
+	public static DocidBitmap fromSortedDocids(int[] docids, int n) {
+		DocidBitmap result = new DocidBitmap(4);
+		char[] buffer = new char[Math.min(n, 65536)];
+		int i = 0;
+
+		while (i < n) {
+			char key = (char) (docids[i] >>> 16);
+			int count = 0;
+			while (i < n && (docids[i] >>> 16) == key) {
+				buffer[count++] = (char) docids[i++];
+			}
+			result.appendArray(key, buffer, count);
+		}
+		return result;
+	}
+
+	/**
+	 *  Get the docids that are in both bitmaps.
+	 *  @param other Another bitmap.
+	 *  @return A new bitmap.
+	 */
+	public DocidBitmap and(DocidBitmap other) {
+		DocidBitmap result = new DocidBitmap(Math.min(this.numOfChunks, other.numOfChunks));
+		char[] buffer = new char[ARRAY_MAX];
+		int i = 0;
+		int j = 0;
+
+		while (i < this.numOfChunks && j < other.numOfChunks) {
+			if (this.keys[i] < other.keys[j]) {
+				i++;
+			} else if (this.keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				char key = this.keys[i];
+				if (this.bitmaps[i] != null && other.bitmaps[j] != null) {
+					long[] words = new long[BITMAP_WORDS];
+					int card = 0;
+					for (int w = 0; w < BITMAP_WORDS; w++) {
+						words[w] = this.bitmaps[i][w] & other.bitmaps[j][w];
+						card += Long.bitCount(words[w]);
+					}
+					result.appendBitmap(key, words, card);
+				} else if (this.bitmaps[i] != null || other.bitmaps[j] != null) {
+					char[] array = (this.arrays[i] != null) ? this.arrays[i] : other.arrays[j];
+					long[] bits = (this.bitmaps[i] != null) ? this.bitmaps[i] : other.bitmaps[j];
+					int card = 0;
+					for (char low : array) {
+						if ((bits[low >>> 6] & (1L << low)) != 0)
+							buffer[card++] = low;
+					}
+					result.appendArray(key, buffer, card);
+				} else {
+					char[] a = this.arrays[i];
+					char[] b = other.arrays[j];
+					int card = 0;
+					int x = 0;
+					int y = 0;
+					while (x < a.length && y < b.length) {
+						if (a[x] < b[y]) {
+							x++;
+						} else if (a[x] > b[y]) {
+							y++;
+						} else {
+							buffer[card++] = a[x];
+							x++;
+							y++;
+						}
+					}
+					result.appendArray(key, buffer, card);
+				}
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 *  Get the docids that are in either bitmap.
+	 *  @param other Another bitmap.
+	 *  @return A new bitmap.
+	 */
+	public DocidBitmap or(DocidBitmap other) {
+		DocidBitmap result = new DocidBitmap(this.numOfChunks + other.numOfChunks);
+		char[] buffer = new char[2 * ARRAY_MAX];
+		int i = 0;
+		int j = 0;
+
+		while (i < this.numOfChunks || j < other.numOfChunks) {
+			if (j == other.numOfChunks ||
+					(i < this.numOfChunks && this.keys[i] < other.keys[j])) {
+				result.appendShared(this, i++);
+			} else if (i == this.numOfChunks || this.keys[i] > other.keys[j]) {
+				result.appendShared(other, j++);
+			} else {
+				char key = this.keys[i];
+				if (this.arrays[i] != null && other.arrays[j] != null) {
+					char[] a = this.arrays[i];
+					char[] b = other.arrays[j];
+					int card = 0;
+					int x = 0;
+					int y = 0;
+					while (x < a.length || y < b.length) {
+						if (y == b.length || (x < a.length && a[x] < b[y])) {
+							buffer[card++] = a[x++];
+						} else if (x == a.length || a[x] > b[y]) {
+							buffer[card++] = b[y++];
+						} else {
+							buffer[card++] = a[x];
+							x++;
+							y++;
+						}
+					}
+					result.appendArray(key, buffer, card);
+				} else {
+					long[] words = (this.bitmaps[i] != null) ?
+							this.bitmaps[i].clone() : toBits(this.arrays[i]);
+					if (other.bitmaps[j] != null) {
+						for (int w = 0; w < BITMAP_WORDS; w++)
+							words[w] |= other.bitmaps[j][w];
+					} else {
+						for (char low : other.arrays[j])
+							words[low >>> 6] |= (1L << low);
+					}
+					int card = 0;
+					for (int w = 0; w < BITMAP_WORDS; w++)
+						card += Long.bitCount(words[w]);
+					result.appendBitmap(key, words, card);
+				}
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 *  Get the number of docids in the bitmap.
+	 *  @return The number of docids.
+	 */
+	public int cardinality() {
+		int card = 0;
+		for (int i = 0; i < this.numOfChunks; i++)
+			card += this.cardinalities[i];
+		return card;
+	}
+
+	/**
+	 *  Get the docids in the bitmap in increasing order.
+	 *  @return An array of internal document ids.
+	 */
+	public int[] toArray() {
+		int[] result = new int[this.cardinality()];
+		int n = 0;
+
+		for (int i = 0; i < this.numOfChunks; i++) {
+			int high = ((int) this.keys[i]) << 16;
+			if (this.arrays[i] != null) {
+				for (char low : this.arrays[i])
+					result[n++] = high | low;
+			} else {
+				long[] words = this.bitmaps[i];
+				for (int w = 0; w < BITMAP_WORDS; w++) {
+					long word = words[w];
+					while (word != 0) {
+						result[n++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+						word &= word - 1;
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 *  Get the approximate memory used by the bitmap, which is useful for
+	 *  caches.
+	 *  @return The size in bytes.
+	 */
+	public long sizeInBytes() {
+		long size = 16 + 10L * this.keys.length;
+		for (int i = 0; i < this.numOfChunks; i++) {
+			size += (this.arrays[i] != null) ? 2L * this.arrays[i].length : 8L * BITMAP_WORDS;
+		}
+		return size;
+	}
+
+	//store the first count lows of a chunk in the smaller representation
+	private void appendArray(char key, char[] lows, int count) {
+		if (count == 0) return;
+		if (count > ARRAY_MAX) {
+			long[] words = new long[BITMAP_WORDS];
+			for (int i = 0; i < count; i++)
+				words[lows[i] >>> 6] |= (1L << lows[i]);
+			this.append(key, null, words, count);
+		} else {
+			this.append(key, Arrays.copyOf(lows, count), null, count);
+		}
+	}
+
+	//store a bitmap chunk, converting it to an array if it is sparse
+	private void appendBitmap(char key, long[] words, int count) {
+		if (count == 0) return;
+		if (count > ARRAY_MAX) {
+			this.append(key, null, words, count);
+		} else {
+			char[] lows = new char[count];
+			int n = 0;
+			for (int w = 0; w < BITMAP_WORDS; w++) {
+				long word = words[w];
+				while (word != 0) {
+					lows[n++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			this.append(key, lows, null, count);
+		}
+	}
+
+	//share the i'th chunk of another bitmap; chunks are never modified
+	private void appendShared(DocidBitmap other, int i) {
+		this.append(other.keys[i], other.arrays[i], other.bitmaps[i],
+				other.cardinalities[i]);
+	}
+
+	private void append(char key, char[] array, long[] bitmap, int card) {
+		if (this.numOfChunks == this.keys.length) {
+			int capacity = 2 * this.numOfChunks;
+			this.keys = Arrays.copyOf(this.keys, capacity);
+			this.arrays = Arrays.copyOf(this.arrays, capacity);
+			this.bitmaps = Arrays.copyOf(this.bitmaps, capacity);
+			this.cardinalities = Arrays.copyOf(this.cardinalities, capacity);
+		}
+		this.keys[this.numOfChunks] = key;
+		this.arrays[this.numOfChunks] = array;
+		this.bitmaps[this.numOfChunks] = bitmap;
+		this.cardinalities[this.numOfChunks] = card;
+		this.numOfChunks++;
+	}
+
+	private static long[] toBits(char[] lows) {
+		long[] words = new long[BITMAP_WORDS];
+		for (char low : lows)
+			words[low >>> 6] |= (1L << low);
+		return words;
+	}
+}
@@ -15,7 +15,13 @@
  * limitations under the License.
  */
 
+import java.io.IOException;
 import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
@@ -29,12 +35,18 @@ import org.apache.lucene.analysis.miscellaneous.SetKeywordMarkerFilter;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.standard.StandardFilter;
 import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.analysis.util.CharArraySet;
 import org.apache.lucene.analysis.util.StopwordAnalyzerBase;
 import org.apache.lucene.util.Version;
 
 /**
  * {@link Analyzer} for English.
+ * <p>
+ * The token stream components are built once per thread and reused by
+ * {@link Analyzer#tokenStream(String, Reader)}, so configure the analyzer
+ * before it is first used.  {@link #tokenize(String)} also remembers the
+ * tokens of recent strings per thread.
  */
 public final class EnglishAnalyzerConfigurable extends StopwordAnalyzerBase {
 
@@ -47,6 +59,28 @@ public final class EnglishAnalyzerConfigurable extends StopwordAnalyzerBase {
   private Boolean doStopwordRemoval = true;
   private StemmerType stemmer = StemmerType.PORTER;
 
+  /**
+   * The number of strings whose tokens each thread remembers. Query
+   * vocabulary repeats a lot, so most lookups skip the analyzer.
+   */
+  private static final int TOKEN_CACHE_SIZE = 10000;
+
+  // one LRU cache per thread, so lookups don't contend for a lock
+  private final ThreadLocal<Map<String, String[]>> tokenCache =
+      new ThreadLocal<Map<String, String[]>>() {
+    @Override
+    protected Map<String, String[]> initialValue() {
+      return new LinkedHashMap<String, String[]>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+          return this.size() > TOKEN_CACHE_SIZE;
+        }
+      };
+    }
+  };
+
   /**
    * Returns an unmodifiable instance of the default stop words set.
    * 
@@ -126,6 +160,39 @@ public final class EnglishAnalyzerConfigurable extends StopwordAnalyzerBase {
     this.stemmer = s;
   }
 
+  /**
+   * Get the tokens of a string, e.g. a query.
+   * 
+   * @param text
+   *          the string to analyze
+   * @return the tokens, a new array that the caller may modify
+   * @throws IOException
+   *           error reading the token stream
+   */
+  public String[] tokenize(String text) throws IOException {
+    Map<String, String[]> cache = this.tokenCache.get();
+    String[] cached = cache.get(text);
+    if (cached != null)
+      return cached.clone();
+
+    TokenStream tokenStream = this.tokenStream("dummy", new StringReader(text));
+    CharTermAttribute charTermAttribute = tokenStream.addAttribute(CharTermAttribute.class);
+    List<String> tokens = new ArrayList<String>();
+
+    try {
+      tokenStream.reset();
+      while (tokenStream.incrementToken())
+        tokens.add(charTermAttribute.toString());
+      tokenStream.end();
+    } finally {
+      tokenStream.close();
+    }
+
+    String[] result = tokens.toArray(new String[tokens.size()]);
+    cache.put(text, result);
+    return result.clone();
+  }
+
   /**
    * Creates a {@link org.apache.lucene.analysis.Analyzer.TokenStreamComponents}
    * which tokenizes all the text in the provided {@link Reader}.
@@ -0,0 +1,217 @@
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ *  A disk cache of raw (not yet normalized) learning to rank feature
+ *  values, so a run only computes the features that an earlier run with
+ *  the same index did not.  Values are kept per query, in a file named by
+ *  the hash of the qid and query stems, and within the file per feature
+ *  and docid.  A feature is identified by its extractor's cache key,
+ *  which includes the model parameters it reads (e.g. BM25 k_1 and b), so
+ *  changing a parameter only invalidates the features that depend on it,
+ *  and the values for the old setting stay in the file for later runs.
+ *  Files remember the version of the index they were computed from and
+ *  are ignored once the index changes.
+ *  <p>
+ *  Values are stored as floats, the precision of a FeatureMatrix, with
+ *  NaN for a feature that has no value for the document.
+ *  </p>
+ */
+public class FeatureCache {
+
+	//  --------------- Constants and variables ---------------------
+
+	private final File directory;
+	private final String indexVersion;
+
+	private long lookups = 0;
+	private long hits = 0;
+
+	/**
+	 *  The cached values of one query: the value of each feature for each
+	 *  docid.
+	 */
+	public static class Entry {
+		private final Map<String, Map<Integer, Float>> features =
+				new HashMap<String, Map<Integer, Float>>();
+		private boolean changed = false;
+
+		/**
+		 *  @param key The cache key of a feature.
+		 *  @param docid An internal docid.
+		 *  @return The value, or null if it isn't cached.
+		 */
+		public Float get(String key, int docid) {
+			Map<Integer, Float> values = this.features.get(key);
+			return (values == null) ? null : values.get(docid);
+		}
+
+		/**
+		 *  @param key The cache key of a feature.
+		 *  @param docid An internal docid.
+		 *  @param value The value, or NaN.
+		 */
+		public void put(String key, int docid, float value) {
+			Map<Integer, Float> values = this.features.get(key);
+			if (values == null) {
+				values = new HashMap<Integer, Float>();
+				this.features.put(key, values);
+			}
+			Float old = values.put(docid, value);
+			if (old == null || Float.floatToIntBits(old) != Float.floatToIntBits(value))
+				this.changed = true;
+		}
+	}
+
+	//  --------------- Methods ---------------------------------------
+
+	/**
+	 *  @param directoryPath The directory of the cache files.
+	 */
+	public FeatureCache(String directoryPath) {
+		this.indexVersion = Idx.getIndexVersion();
+		this.directory = new File(directoryPath);
+		this.directory.mkdirs();
+	}
+
+	/**
+	 *  Read the cached values of a query.
+	 *  @param qid The query id.
+	 *  @param queryTokens The stems of the query.
+	 *  @return The cached values, which are empty if the query isn't
+	 *  cached.
+	 */
+	public synchronized Entry get(String qid, String[] queryTokens) {
+		String key = queryKey(qid, queryTokens);
+		Entry entry = this.readEntry(key);
+		return (entry != null) ? entry : new Entry();
+	}
+
+	/**
+	 *  Store the values of a query, if any of them are new.
+	 *  @param qid The query id.
+	 *  @param queryTokens The stems of the query.
+	 *  @param entry The values read by get() and then updated.
+	 */
+	public synchronized void put(String qid, String[] queryTokens, Entry entry) {
+		if (entry.changed) {
+			this.writeEntry(queryKey(qid, queryTokens), entry);
+			entry.changed = false;
+		}
+	}
+
+	/**
+	 *  Count the feature values that were looked up.
+	 *  @param lookups The number of values looked up.
+	 *  @param hits The number of them that were cached.
+	 */
+	public synchronized void addLookups(long lookups, long hits) {
+		this.lookups += lookups;
+		this.hits += hits;
+	}
+
+	/**
+	 *  @return The fraction of feature values that were cached.
+	 */
+	public synchronized double getHitRate() {
+		return (this.lookups > 0) ? this.hits / (double) this.lookups : 0;
+	}
+
+	/**
+	 *  @return The lookup and hit counts.
+	 */
+	public synchronized String toString() {
+		return String.format("%d feature values, %d cached, hit rate %.1f%%",
+				this.lookups, this.hits, 100 * this.getHitRate());
+	}
+
+	private static String queryKey(String qid, String[] queryTokens) {
+		StringBuilder key = new StringBuilder(qid).append(':');
+		for (String token : queryTokens)
+			key.append(' ').append(token);
+		return key.toString();
+	}
+
+	//each query's values are stored in a file named by the hash of its key
+	private File entryFile(String key) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+			StringBuilder name = new StringBuilder();
+			for (byte b : hash)
+				name.append(String.format("%02x", b));
+			return new File(this.directory, name + ".fvc");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private Entry readEntry(String key) {
+		File file = this.entryFile(key);
+		if (!file.exists())
+			return null;
+
+		DataInputStream input = null;
+		try {
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+			if (!input.readUTF().equals(this.indexVersion) || !input.readUTF().equals(key))
+				return null;
+
+			Entry entry = new Entry();
+			int numOfFeatures = input.readInt();
+			for (int f = 0; f < numOfFeatures; f++) {
+				String featureKey = input.readUTF();
+				int n = input.readInt();
+				Map<Integer, Float> values = new HashMap<Integer, Float>(2 * n);
+				for (int i = 0; i < n; i++) {
+					int docid = input.readInt();
+					values.put(docid, input.readFloat());
+				}
+				entry.features.put(featureKey, values);
+			}
+			return entry;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		} finally {
+			try {
+				if (input != null)
+					input.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void writeEntry(String key, Entry entry) {
+		DataOutputStream output = null;
+		try {
+			output = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(this.entryFile(key))));
+			output.writeUTF(this.indexVersion);
+			output.writeUTF(key);
+			output.writeInt(entry.features.size());
+			for (Map.Entry<String, Map<Integer, Float>> feature : entry.features.entrySet()) {
+				output.writeUTF(feature.getKey());
+				output.writeInt(feature.getValue().size());
+				for (Map.Entry<Integer, Float> value : feature.getValue().entrySet()) {
+					output.writeInt(value.getKey());
+					output.writeFloat(value.getValue());
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				if (output != null)
+					output.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,25 @@
+import java.io.IOException;
+
+/**
+ * computes one feature of a <query, doc> pair. An extractor declares the
+ * inputs it reads, so that the inputs of disabled features are never
+ * loaded, then reads them from the FeatureVector that is being built.
+ * Features are computed in order, so an extractor may also read the value
+ * of an earlier feature (0 if that feature is disabled).
+ */
+public abstract class FeatureExtractor {
+
+	//add the inputs that this feature reads
+	public abstract void addInputs(FeatureInputs inputs);
+
+	//compute the feature, or FeatureVector.INVALID_FEATURE if the doc has no value
+	public abstract double extract(FeatureVector fv) throws IOException;
+	
+	//identify the values of this feature in the FeatureCache: the extractor,
+	//and its field and the model parameters it reads, if any. Cached values
+	//are only reused while the key is the same, so an extractor that reads
+	//other parameters or features must add them
+	public String getCacheKey(RetrievalModelletor model) {
+		return getClass().getName();
+	}
+}
@@ -0,0 +1,58 @@
+import java.io.IOException;
+
+/**
+ * the BM25 score of the query for a field of the doc
+ */
+public class FeatureExtractorBM25 extends FeatureExtractor {
+	private String field;
+
+	public FeatureExtractorBM25(String field) {
+		this.field = field;
+	}
+
+	public void addInputs(FeatureInputs inputs) {
+		inputs.addTermVector(this.field);
+	}
+
+	public String getCacheKey(RetrievalModelletor model) {
+		return super.getCacheKey(model) + ":" + this.field + ":k_1=" + model.getK_1()
+				+ ",b=" + model.getB() + ",k_3=" + model.getK_3();
+	}
+
+	//get the accumulated BM25 score for this <q, d> and given field
+	public double extract(FeatureVector fv) throws IOException {
+		double score = 0;
+		TermVector termVector = fv.getTermVector(this.field);
+		
+		if(termVector.stemsLength() == 0) { //no such field exist for this doc
+			return FeatureVector.INVALID_FEATURE;
+		}
+		
+		for(int i : fv.getStemIndexes(this.field)) { //go through each query stem
+			if(i >= 0) { //add to BM25 score if match
+				score += BM25Score(i, termVector, fv.getModel());
+			}
+		}
+		return score;
+	}
+	
+	//calculate BM25 score for given term string (index) and the doc term vector
+	private double BM25Score(int stemIndex, TermVector termVector, RetrievalModelletor model) throws IOException {
+		double tf = (double) termVector.stemFreq(stemIndex);
+		double df = (double) termVector.stemDf(stemIndex);
+		double docLen = (double) termVector.positionsLength();
+		double aveDocLen = Idx.getSumOfFieldLengths(this.field) / (double)Idx.getDocCount (this.field);
+		double N = (double)Idx.getNumDocs();
+		double qtf = 1;
+		
+		double k_1 = model.getK_1();
+		double k_3 = model.getK_3();
+		double b = model.getB();
+		
+		double rsfWeight = Math.max(0,  Math.log((N - df + 0.5) / (df + 0.5)));
+		double tfWeight = tf / (tf + k_1 * ((1 - b) + b * docLen / aveDocLen));
+		double userWeight = (k_3 + 1) * qtf / (k_3 + qtf);
+		
+		return rsfWeight * tfWeight * userWeight;
+	}
+}
@@ -0,0 +1,79 @@
+import java.io.IOException;
+
+import org.apache.lucene.index.Term;
+
+/**
+ * the Indri score of the query for a field of the doc, or 0 if the field
+ * contains no query stem
+ */
+public class FeatureExtractorIndri extends FeatureExtractor {
+	private String field;
+
+	public FeatureExtractorIndri(String field) {
+		this.field = field;
+	}
+
+	public void addInputs(FeatureInputs inputs) {
+		inputs.addTermVector(this.field);
+	}
+
+	public String getCacheKey(RetrievalModelletor model) {
+		return super.getCacheKey(model) + ":" + this.field + ":mu=" + model.getMu()
+				+ ",lambda=" + model.getLambda();
+	}
+
+	//get the accumulated Indir score for this <q, d> and given field
+	public double extract(FeatureVector fv) throws IOException {
+		double score = 1;
+		TermVector termVector = fv.getTermVector(this.field);
+		
+		if(termVector.stemsLength() == 0) { //no such field exist for this doc
+			return FeatureVector.INVALID_FEATURE;
+		}
+		
+		String[] queryTokens = fv.getQueryTokens();
+		double reversePower = 1.0 / ((double) queryTokens.length); //reverse of query stems size
+		int matchCnt = 0; //count number of matched terms
+		int[] indexes = fv.getStemIndexes(this.field);
+		for(int q = 0; q < indexes.length; q++) { //go through each query stem
+			if(indexes[q] >= 0) {
+				//if match, multiply it to the final indri score
+				score *= Math.pow(indriScore(indexes[q], this.field, termVector, fv.getModel()), reversePower);
+				matchCnt++;
+			} else {
+				//doc does not contain the stem, calculate default score instead
+				score *= Math.pow(defaultIndriScore(queryTokens[q], this.field, termVector, fv.getModel()), reversePower);
+			}
+		}
+		return (matchCnt == 0) ? 0.0 : score; //if no match found, return 0 instead of default
+	}
+	
+	//calculate Indri score for given term string (index) and the doc term vector
+	static double indriScore(int stemIndex, String field, TermVector termVector, 
+			RetrievalModelletor model) throws IOException {
+		double mu = model.getMu();
+		double lambda = model.getLambda();
+		
+		double ctf = (double) termVector.totalStemFreq(stemIndex);
+		double tf = (double) termVector.stemFreq(stemIndex);
+		double docLen = (double) termVector.positionsLength();
+		double corpLen = (double) Idx.getSumOfFieldLengths(field);
+		double p_q_C = ctf / corpLen; 
+		
+		return (1 - lambda) * (tf + mu * p_q_C) / (docLen + mu) + lambda * p_q_C;
+	}
+	
+	//calculate default Indri score if a stem is not in this doc
+	static double defaultIndriScore(String stem, String field, TermVector termVector, 
+			RetrievalModelletor model) throws IOException {
+		double mu = model.getMu();
+		double lambda = model.getLambda();
+		
+		double ctf = (double) Idx.INDEXREADER.totalTermFreq(new Term(field, stem));
+		double docLen = (double) termVector.positionsLength();
+		double corpLen = (double) Idx.getSumOfFieldLengths(field);
+		double p_q_C = ctf / corpLen; 
+		
+		return (1 - lambda) * (mu * p_q_C) / (docLen + mu) + lambda * p_q_C;	
+	}
+}
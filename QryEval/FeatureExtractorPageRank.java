@@ -0,0 +1,24 @@
+import java.io.File;
+
+/**
+ * f4: the PageRank score of the doc
+ */
+public class FeatureExtractorPageRank extends FeatureExtractor {
+
+	public void addInputs(FeatureInputs inputs) {
+		inputs.addPageRank();
+	}
+
+	//the scores are read from the PageRank file, so a new file invalidates them
+	public String getCacheKey(RetrievalModelletor model) {
+		if(model.getPageRankFile() == null)
+			return super.getCacheKey(model);
+		File file = new File(model.getPageRankFile());
+		return super.getCacheKey(model) + ":" + file.getAbsolutePath()
+				+ "@" + file.lastModified();
+	}
+
+	public double extract(FeatureVector fv) {
+		return fv.getPageRankScore();
+	}
+}
@@ -0,0 +1,58 @@
+import java.io.IOException;
+
+/**
+ * customized f18: the KL divergence of the query with the body field, plus
+ * a prior on the doc. The prior contains page rank score and date (the
+ * larger the better), spam and url depth (the lower the better); the spam,
+ * url depth and page rank scores are the values of f1, f2 and f4, which
+ * are computed first.
+ */
+public class FeatureExtractorPrior extends FeatureExtractor {
+
+	public void addInputs(FeatureInputs inputs) {
+		inputs.addTermVector("body");
+		inputs.addStoredField("date");
+	}
+
+	//the prior reads f1, f2 and f4, which are 0 when they are disabled
+	public String getCacheKey(RetrievalModelletor model) {
+		StringBuilder key = new StringBuilder(super.getCacheKey(model));
+		key.append(":mu=").append(model.getMu()).append(",lambda=").append(model.getLambda());
+		for(int i : new int[] { 0, 1, 3 }) {
+			key.append(':').append(model.getFeatureDisable().contains(i) ?
+					"disabled" : model.getFeatureRegistry().get(i).getCacheKey(model));
+		}
+		return key.toString();
+	}
+
+	public double extract(FeatureVector fv) throws IOException {
+		double score = 0;
+		TermVector termVector = fv.getTermVector("body");
+		
+		if(termVector.stemsLength() == 0) { //no such field exist for this doc
+			return FeatureVector.INVALID_FEATURE;
+		}
+		
+		double spam = fv.getFvector()[0];
+		double urlDepth = fv.getFvector()[1];
+		double prScore = fv.getFvector()[3];
+		double date = Double.parseDouble(fv.getStoredField("date"));
+		
+		//make sure prior is greater than 0
+		double prior = (prScore + 2) * date / ((spam + 1) * urlDepth);
+		prior = Math.log(prior);
+		
+		String[] queryTokens = fv.getQueryTokens();
+		int[] indexes = fv.getStemIndexes("body");
+		for(int q = 0; q < indexes.length; q++) { //go through each query stem
+			if(indexes[q] >= 0) { //use indri score for p(q|d)
+				score += Math.log(FeatureExtractorIndri.indriScore(indexes[q], "body", termVector, fv.getModel()));
+			} else {
+				//doc does not contain the stem, calculate default score instead
+				score += Math.log(FeatureExtractorIndri.defaultIndriScore(queryTokens[q], "body", termVector, fv.getModel()));
+			}
+		}
+		
+		return score + prior;
+	}
+}
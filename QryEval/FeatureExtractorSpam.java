@@ -0,0 +1,13 @@
+/**
+ * f1: the spam score of the doc (its "score" stored field)
+ */
+public class FeatureExtractorSpam extends FeatureExtractor {
+
+	public void addInputs(FeatureInputs inputs) {
+		inputs.addStoredField("score");
+	}
+
+	public double extract(FeatureVector fv) {
+		return Integer.parseInt(fv.getStoredField("score"));
+	}
+}
@@ -0,0 +1,35 @@
+/**
+ * the fraction of the query stems that occur in a field of the doc
+ */
+public class FeatureExtractorTermOverlap extends FeatureExtractor {
+	private String field;
+
+	public FeatureExtractorTermOverlap(String field) {
+		this.field = field;
+	}
+
+	public void addInputs(FeatureInputs inputs) {
+		inputs.addTermVector(this.field);
+	}
+
+	public String getCacheKey(RetrievalModelletor model) {
+		return super.getCacheKey(model) + ":" + this.field;
+	}
+
+	//get the percentage of term overlap for this <q, d> and given field
+	public double extract(FeatureVector fv) {
+		double cnt = 0;
+		TermVector termVector = fv.getTermVector(this.field);
+		
+		if(termVector.stemsLength() == 0) { //no such field exist for this doc
+			return FeatureVector.INVALID_FEATURE;
+		}
+		
+		for(int i : fv.getStemIndexes(this.field)) { //go through each stem in query
+			if(i >= 0) { //increment cnt if a match
+				cnt++;
+			}
+		}
+		return cnt / ((double) fv.getQueryTokens().length);
+	}
+}
@@ -0,0 +1,19 @@
+/**
+ * f2: the depth of the doc's url
+ */
+public class FeatureExtractorUrlDepth extends FeatureExtractor {
+
+	public void addInputs(FeatureInputs inputs) {
+		inputs.addStoredField("rawUrl");
+	}
+
+	//count the depth for given url (number of /), taking out http:// and the last /
+	public double extract(FeatureVector fv) {
+		String rawUrl = fv.getStoredField("rawUrl");
+		double cnt = 0;
+		for(int i = 0; i < rawUrl.length(); i++) {
+			if(rawUrl.charAt(i) == '/') cnt = cnt + 1.0;
+		}
+		return cnt;
+	}
+}
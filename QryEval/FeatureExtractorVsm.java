@@ -0,0 +1,43 @@
+import java.io.IOException;
+
+import org.apache.lucene.index.Term;
+
+/**
+ * customized f17: the VSM lnc.ltc score of the query for the body field
+ */
+public class FeatureExtractorVsm extends FeatureExtractor {
+
+	public void addInputs(FeatureInputs inputs) {
+		inputs.addTermVector("body");
+	}
+
+	//calculate the VSM lnc.ltc scores, use body field
+	public double extract(FeatureVector fv) throws IOException {
+		TermVector termVector = fv.getTermVector("body");
+		if(termVector.stemsLength() <= 1) { //no such field exist for this doc
+			return FeatureVector.INVALID_FEATURE;
+		}
+		
+		double score = 0;
+		double queryNormLen = 0;
+		double docNormLen = 0;
+		double N = (double)Idx.getNumDocs();
+		
+		for(int i = 1; i < termVector.stemsLength(); i++) { //accumulate the doc length for norm
+			double docTermWeight = Math.log(termVector.stemFreq(i)) + 1;
+			docNormLen += docTermWeight * docTermWeight;
+		}
+		
+		String[] queryTokens = fv.getQueryTokens();
+		int[] indexes = fv.getStemIndexes("body");
+		for(int q = 0; q < indexes.length; q++) { //go through each stem in query
+			double queryTermWeight = Math.log(N / Idx.INDEXREADER.docFreq(new Term("body", queryTokens[q])));
+			queryNormLen += queryTermWeight * queryTermWeight;
+			
+			if(indexes[q] >= 0) { //add the weight if a match
+				score += (Math.log(termVector.stemFreq(indexes[q])) + 1) * queryTermWeight;
+			}
+		}
+		return score / Math.sqrt(queryNormLen * docNormLen);
+	}
+}
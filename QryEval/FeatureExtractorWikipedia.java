@@ -0,0 +1,14 @@
+/**
+ * f3: 1 if the doc's url is from wikipedia.org, otherwise 0
+ */
+public class FeatureExtractorWikipedia extends FeatureExtractor {
+	private static final String WIKI_STR = "wikipedia.org";
+
+	public void addInputs(FeatureInputs inputs) {
+		inputs.addStoredField("rawUrl");
+	}
+
+	public double extract(FeatureVector fv) {
+		return fv.getStoredField("rawUrl").contains(WIKI_STR) ? 1 : 0;
+	}
+}
@@ -0,0 +1,367 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ *  A binary learning to rank feature file, the compact alternative to the
+ *  SVM-light text files selected by letor:featureFileFormat=binary.  It
+ *  holds the same <query, document> pairs, and is converted to SVM-light
+ *  from the command line (run it to see a usage message).
+ *  <p>
+ *  The file has a header and one block per query, in the order the
+ *  queries were written.  Within a block, the docids, labels and each
+ *  feature are stored as columns, so a block is read back with one bulk
+ *  copy per column:
+ *  </p>
+ *  <pre>
+ *    header:  magic, version, number of features, number of queries,
+ *             number of pairs
+ *    block:   qid, number of pairs, internal docids, labels,
+ *             feature 1 of each pair, ..., feature n of each pair
+ *  </pre>
+ *  <p>
+ *  Every value is a 4-byte big-endian int or float except the 8-byte
+ *  number of pairs.  Qids are stored as ints, so they must be numbers, as
+ *  the letor sorting already requires, and docids are internal, so a file
+ *  is only valid with the index it was built from.  Files are written
+ *  through a FileChannel and read through read-only mappings of up to 1GB
+ *  that start at a block boundary.
+ *  </p>
+ */
+public class FeatureFile {
+
+	//  --------------- Constants and variables ---------------------
+
+	static String usage =
+			"Usage:  java FeatureFile -index INDEX_PATH -input FILE -output FILE\n\n" +
+			"Converts a binary feature file to the SVM-light format.  The index\n" +
+			"is the one the file was built from; it maps the internal docids to\n" +
+			"external docids.\n";
+
+	private static final int MAGIC = 0x51454656;	// "QEFV"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 24;
+
+	private static final long CHUNK_SIZE = 1L << 30;
+
+	/**
+	 *  Writes a feature file, in the binary format or in the SVM-light
+	 *  format.  Pairs are added with write(), and close() fills in the
+	 *  counts in the binary header.
+	 */
+	public static class Writer {
+		private final PrintWriter text;	// null for the binary format
+		private final RandomAccessFile raf;
+		private final FileChannel channel;
+		private final int numOfFeatures;
+		private int numOfQueries = 0;
+		private long numOfPairs = 0;
+		private ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+		/**
+		 *  @param path The file to create or replace.
+		 *  @param numOfFeatures The number of features of each pair.
+		 *  @param binary True for the binary format, false for SVM-light.
+		 *  @throws IOException Error writing the file.
+		 */
+		public Writer(String path, int numOfFeatures, boolean binary)
+				throws IOException {
+			this.numOfFeatures = numOfFeatures;
+			if (!binary) {
+				this.text = new PrintWriter(path, "UTF-8");
+				this.raf = null;
+				this.channel = null;
+				return;
+			}
+
+			this.text = null;
+			this.raf = new RandomAccessFile(path, "rw");
+			this.raf.setLength(0);
+			this.channel = this.raf.getChannel();
+			writeFully(this.header(), -1);	// the counts are filled in by close()
+		}
+
+		/**
+		 *  Append the pairs of a matrix, one block per run of pairs with
+		 *  the same qid.
+		 *  @param matrix Pairs with this file's features, normalized.
+		 *  @throws IOException Error writing the file.
+		 */
+		public void write(FeatureMatrix matrix) throws IOException {
+			if (matrix.getNumOfFeatures() != this.numOfFeatures) {
+				throw new IllegalArgumentException("Error:  The matrix has " +
+						matrix.getNumOfFeatures() + " features, not " + this.numOfFeatures);
+			}
+
+			if (this.text != null) {
+				matrix.write(this.text);
+				return;
+			}
+
+			int[] starts = matrix.getQueryStarts();
+			for (int q = 0; q + 1 < starts.length; q++) {
+				int from = starts[q];
+				int n = starts[q + 1] - from;
+				long bytes = 8 + 8L * n + 4L * this.numOfFeatures * n;
+				if (bytes > CHUNK_SIZE)
+					throw new IllegalArgumentException(
+							"Error:  Query " + matrix.getQid(from) + " has too many pairs.");
+
+				if (this.buffer.capacity() < bytes)
+					this.buffer = ByteBuffer.allocate((int) bytes);
+				this.buffer.clear();
+				this.buffer.putInt(Integer.parseInt(matrix.getQid(from)));
+				this.buffer.putInt(n);
+				for (int p = from; p < from + n; p++)
+					this.buffer.putInt(matrix.getDocid(p));
+				for (int p = from; p < from + n; p++)
+					this.buffer.putInt(matrix.getLabel(p));
+				for (int f = 0; f < this.numOfFeatures; f++) {
+					this.buffer.asFloatBuffer().put(matrix.getColumn(f), from, n);
+					this.buffer.position(this.buffer.position() + 4 * n);
+				}
+				this.buffer.flip();
+				writeFully(this.buffer, -1);
+
+				this.numOfQueries++;
+				this.numOfPairs += n;
+			}
+		}
+
+		/**
+		 *  Fill in the header and close the file.
+		 *  @throws IOException Error writing the file.
+		 */
+		public void close() throws IOException {
+			if (this.text != null) {
+				this.text.close();
+				return;
+			}
+
+			try {
+				writeFully(this.header(), 0);
+			} finally {
+				this.raf.close();
+			}
+		}
+
+		private ByteBuffer header() {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(MAGIC).putInt(VERSION).putInt(this.numOfFeatures)
+					.putInt(this.numOfQueries).putLong(this.numOfPairs);
+			header.flip();
+			return header;
+		}
+
+		//  Write all of a buffer at a position, or at the end if position
+		//  is negative.
+		private void writeFully(ByteBuffer src, long position) throws IOException {
+			while (src.hasRemaining()) {
+				if (position < 0) {
+					this.channel.write(src);
+				} else {
+					position += this.channel.write(src, position);
+				}
+			}
+		}
+	}
+
+	/**
+	 *  Reads a binary feature file one query at a time.
+	 */
+	public static class Reader {
+		private final String path;
+		private final RandomAccessFile raf;
+		private final FileChannel channel;
+		private final long size;
+		private final int numOfFeatures;
+		private final int numOfQueries;
+		private final long numOfPairs;
+		private int numOfQueriesRead = 0;
+
+		//  The mapped part of the file, and the offset of the next block.
+		private MappedByteBuffer window = null;
+		private long windowStart = 0;
+		private long offset = HEADER_BYTES;
+
+		/**
+		 *  @param path A binary feature file.
+		 *  @throws IOException Error reading the file.
+		 *  @throws IllegalArgumentException The file is not a feature file.
+		 */
+		public Reader(String path) throws IOException {
+			this.path = path;
+			this.raf = new RandomAccessFile(path, "r");
+			this.channel = this.raf.getChannel();
+			this.size = this.channel.size();
+
+			if (this.size < HEADER_BYTES) {
+				this.raf.close();
+				throw new IllegalArgumentException(
+						"Error:  " + path + " is not a feature file.");
+			}
+			ByteBuffer header = this.map(0, HEADER_BYTES);
+			if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+				this.raf.close();
+				throw new IllegalArgumentException(
+						"Error:  " + path + " is not a feature file.");
+			}
+			this.numOfFeatures = header.getInt(8);
+			this.numOfQueries = header.getInt(12);
+			this.numOfPairs = header.getLong(16);
+		}
+
+		public int getNumOfFeatures() {
+			return this.numOfFeatures;
+		}
+
+		public int getNumOfQueries() {
+			return this.numOfQueries;
+		}
+
+		public long getNumOfPairs() {
+			return this.numOfPairs;
+		}
+
+		/**
+		 *  @return The pairs of the next query, or null after the last one.
+		 *  @throws IOException Error reading the file.
+		 */
+		public FeatureMatrix next() throws IOException {
+			if (this.numOfQueriesRead == this.numOfQueries)
+				return null;
+
+			int n = this.ensureMapped(this.offset, 8).getInt((int) (this.offset + 4 - this.windowStart));
+			long bytes = 8 + 8L * n + 4L * this.numOfFeatures * n;
+			ByteBuffer block = this.ensureMapped(this.offset, bytes).duplicate();
+			block.position((int) (this.offset - this.windowStart));
+			this.offset += bytes;
+			this.numOfQueriesRead++;
+
+			String qid = Integer.toString(block.getInt());
+			block.getInt();
+			int[] docids = new int[n];
+			block.asIntBuffer().get(docids);
+			block.position(block.position() + 4 * n);
+
+			FeatureMatrix matrix = new FeatureMatrix(this.numOfFeatures, n);
+			for (int p = 0; p < n; p++)
+				matrix.add(qid, docids[p], block.getInt());
+			for (int f = 0; f < this.numOfFeatures; f++) {
+				block.asFloatBuffer().get(matrix.getColumn(f), 0, n);
+				block.position(block.position() + 4 * n);
+			}
+			return matrix;
+		}
+
+		/**
+		 *  @return The pairs of every remaining query.
+		 *  @throws IOException Error reading the file.
+		 */
+		public FeatureMatrix readAll() throws IOException {
+			if (this.numOfPairs > Integer.MAX_VALUE)
+				throw new IllegalArgumentException(
+						"Error:  " + this.path + " has too many pairs to load.");
+
+			FeatureMatrix matrix = new FeatureMatrix(this.numOfFeatures, (int) this.numOfPairs);
+			FeatureMatrix query;
+			while ((query = this.next()) != null)
+				matrix.addAll(query);
+			return matrix;
+		}
+
+		public void close() throws IOException {
+			this.window = null;
+			this.raf.close();
+		}
+
+		//  Map the part of the file from start, of at least length bytes,
+		//  unless the current window already covers it.
+		private MappedByteBuffer ensureMapped(long start, long length) throws IOException {
+			if (start + length > this.size)
+				throw new IllegalArgumentException(
+						"Error:  " + this.path + " is truncated.");
+			if (this.window == null || start < this.windowStart ||
+					start + length > this.windowStart + this.window.capacity()) {
+				this.window = this.map(start, Math.max(length, Math.min(CHUNK_SIZE, this.size - start)));
+				this.windowStart = start;
+			}
+			return this.window;
+		}
+
+		private MappedByteBuffer map(long start, long length) throws IOException {
+			return this.channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+		}
+	}
+
+	/**
+	 *  Read every pair of a binary feature file.
+	 *  @param path A binary feature file.
+	 *  @return The pairs, in the order they were written.
+	 *  @throws IOException Error reading the file.
+	 */
+	public static FeatureMatrix read(String path) throws IOException {
+		Reader reader = new Reader(path);
+		try {
+			return reader.readAll();
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 *  Convert a binary feature file to the SVM-light format, one query at
+	 *  a time.
+	 *  @param inputPath A binary feature file.
+	 *  @param outputPath The SVM-light file to write.
+	 *  @throws IOException Error accessing the files or the index.
+	 */
+	public static void convertToSvmLight(String inputPath, String outputPath)
+			throws IOException {
+		Reader reader = new Reader(inputPath);
+		PrintWriter output = null;
+		try {
+			output = new PrintWriter(outputPath, "UTF-8");
+			FeatureMatrix query;
+			while ((query = reader.next()) != null)
+				query.write(output);
+		} finally {
+			reader.close();
+			if (output != null)
+				output.close();
+		}
+	}
+
+	/**
+	 *  Convert a binary feature file from the command line.
+	 *  @param args See usage.
+	 *  @throws IOException Error accessing the files or the index.
+	 */
+	public static void main(String[] args) throws IOException {
+		String indexPath = null;
+		String inputPath = null;
+		String outputPath = null;
+
+		for (int i = 0; i < args.length; i++) {
+			if ("-index".equals(args[i]) && i + 1 < args.length) {
+				indexPath = args[++i];
+			} else if ("-input".equals(args[i]) && i + 1 < args.length) {
+				inputPath = args[++i];
+			} else if ("-output".equals(args[i]) && i + 1 < args.length) {
+				outputPath = args[++i];
+			} else {
+				indexPath = null;
+				break;
+			}
+		}
+
+		if (indexPath == null || inputPath == null || outputPath == null) {
+			System.err.println(usage);
+			System.exit(1);
+		}
+
+		Idx.initialize(indexPath);
+		convertToSvmLight(inputPath, outputPath);
+	}
+}
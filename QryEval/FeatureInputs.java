@@ -0,0 +1,40 @@
+import java.util.*;
+
+/**
+ * the inputs that feature extractors read for a <query, doc> pair: stored
+ * fields of the doc, term vectors of its fields, and its PageRank score.
+ * Each extractor adds the inputs it needs, and only the inputs of the
+ * enabled features are loaded. Collection statistics (N, field lengths,
+ * df and ctf) are index-wide and read from Idx when they are used, so they
+ * are not declared.
+ */
+public class FeatureInputs {
+	private Set<String> storedFields = new LinkedHashSet<String>();
+	private Set<String> termVectorFields = new LinkedHashSet<String>();
+	private boolean pageRank = false;
+
+	public void addStoredField(String name) {
+		this.storedFields.add(name);
+	}
+
+	public void addTermVector(String field) {
+		this.termVectorFields.add(field);
+	}
+
+	public void addPageRank() {
+		this.pageRank = true;
+	}
+
+	//getters
+	public Set<String> getStoredFields() {
+		return Collections.unmodifiableSet(storedFields);
+	}
+
+	public Set<String> getTermVectorFields() {
+		return Collections.unmodifiableSet(termVectorFields);
+	}
+
+	public boolean needsPageRank() {
+		return pageRank;
+	}
+}
@@ -0,0 +1,223 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ *  The feature vectors of a set of <query, document> pairs, stored by
+ *  column: values[f][p] is feature f of pair p.  The qid, internal docid
+ *  and relevance label of each pair are kept in separate arrays, so a
+ *  pair costs 4 bytes per feature plus about 16 bytes, and per-feature
+ *  operations such as normalization are loops over a primitive array.
+ *  <p>
+ *  A feature that has no value for a pair (FeatureVector.INVALID_FEATURE)
+ *  is stored as NaN until the pairs are normalized.
+ *  </p>
+ */
+public class FeatureMatrix {
+
+	//  --------------- Constants and variables ---------------------
+
+	private final int numOfFeatures;
+	private int size = 0;
+	private float[][] values;
+	private String[] qids;
+	private int[] docids;
+	private int[] labels;
+
+	//  --------------- Methods ---------------------------------------
+
+	/**
+	 *  @param numOfFeatures The number of features of each pair.
+	 *  @param capacity The expected number of pairs.
+	 */
+	public FeatureMatrix(int numOfFeatures, int capacity) {
+		capacity = Math.max(1, capacity);
+		this.numOfFeatures = numOfFeatures;
+		this.values = new float[numOfFeatures][capacity];
+		this.qids = new String[capacity];
+		this.docids = new int[capacity];
+		this.labels = new int[capacity];
+	}
+
+	/**
+	 *  Add a pair whose features are all 0.
+	 *  @param qid The query id.
+	 *  @param docid The internal docid.
+	 *  @param label The relevance of the document to the query.
+	 *  @return The index of the pair.
+	 */
+	public int add(String qid, int docid, int label) {
+		if (this.size == this.docids.length) {
+			int capacity = 2 * this.size;
+			for (int f = 0; f < this.numOfFeatures; f++)
+				this.values[f] = Arrays.copyOf(this.values[f], capacity);
+			this.qids = Arrays.copyOf(this.qids, capacity);
+			this.docids = Arrays.copyOf(this.docids, capacity);
+			this.labels = Arrays.copyOf(this.labels, capacity);
+		}
+
+		this.qids[this.size] = qid;
+		this.docids[this.size] = docid;
+		this.labels[this.size] = label;
+		return this.size++;
+	}
+
+	/**
+	 *  Add the pairs of another matrix after the pairs of this one.
+	 *  @param other A matrix with the same features.
+	 */
+	public void addAll(FeatureMatrix other) {
+		for (int p = 0; p < other.size; p++) {
+			int q = this.add(other.qids[p], other.docids[p], other.labels[p]);
+			for (int f = 0; f < this.numOfFeatures; f++)
+				this.values[f][q] = other.values[f][p];
+		}
+	}
+
+	/**
+	 *  Set a feature of a pair.
+	 *  @param feature The 0-based feature index.
+	 *  @param pair The index of the pair.
+	 *  @param value The value, or FeatureVector.INVALID_FEATURE.
+	 */
+	public void set(int feature, int pair, double value) {
+		this.values[feature][pair] = (value == FeatureVector.INVALID_FEATURE) ?
+				Float.NaN : (float) value;
+	}
+
+	public float get(int feature, int pair) {
+		return this.values[feature][pair];
+	}
+
+	/**
+	 *  @param feature The 0-based feature index.
+	 *  @return The feature of every pair.  The array is the matrix's own,
+	 *  and it may be longer than size().
+	 */
+	public float[] getColumn(int feature) {
+		return this.values[feature];
+	}
+
+	/**
+	 *  Copy the features of a pair.
+	 *  @param pair The index of the pair.
+	 *  @param row An array for the features, or null.
+	 *  @return The features, in feature order.
+	 */
+	public double[] getRow(int pair, double[] row) {
+		if (row == null || row.length < this.numOfFeatures)
+			row = new double[this.numOfFeatures];
+		for (int f = 0; f < this.numOfFeatures; f++)
+			row[f] = this.values[f][pair];
+		return row;
+	}
+
+	/**
+	 *  Normalize each feature of a range of pairs, e.g. the pairs of one
+	 *  query, to [0, 1] by their minimum and maximum.  A feature that
+	 *  has the same value for every pair of the range, or that has no
+	 *  value, becomes 0.  As before the columnar layout, the maximum
+	 *  starts at Double.MIN_VALUE.
+	 *  @param from The first pair.
+	 *  @param to The pair after the last.
+	 */
+	public void normalize(int from, int to) {
+		for (int f = 0; f < this.numOfFeatures; f++) {
+			float[] column = this.values[f];
+			double max = Double.MIN_VALUE;
+			double min = Double.MAX_VALUE;
+			for (int p = from; p < to; p++) {
+				if (column[p] == column[p]) {	// not NaN
+					max = Math.max(column[p], max);
+					min = Math.min(column[p], min);
+				}
+			}
+
+			for (int p = from; p < to; p++) {
+				if (max == min || column[p] != column[p])
+					column[p] = 0;
+				else
+					column[p] = (float) ((column[p] - min) / (max - min));
+			}
+		}
+	}
+
+	/**
+	 *  @return A copy of the matrix with the pairs sorted by qid (as a
+	 *  number), then docid.
+	 */
+	public FeatureMatrix sort() {
+		Integer[] order = new Integer[this.size];
+		for (int p = 0; p < order.length; p++)
+			order[p] = p;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int aqid = Integer.parseInt(qids[a]);
+				int bqid = Integer.parseInt(qids[b]);
+				if (aqid != bqid)
+					return (aqid < bqid) ? -1 : 1;
+				return (docids[a] < docids[b]) ? -1 : ((docids[a] == docids[b]) ? 0 : 1);
+			}
+		});
+
+		FeatureMatrix sorted = new FeatureMatrix(this.numOfFeatures, this.size);
+		for (int p : order) {
+			int q = sorted.add(this.qids[p], this.docids[p], this.labels[p]);
+			for (int f = 0; f < this.numOfFeatures; f++)
+				sorted.values[f][q] = this.values[f][p];
+		}
+		return sorted;
+	}
+
+	/**
+	 *  @return The first pair of each run of pairs with the same qid,
+	 *  followed by size().
+	 */
+	public int[] getQueryStarts() {
+		int[] starts = new int[this.size + 1];
+		int n = 0;
+		for (int p = 0; p < this.size; p++) {
+			if (p == 0 || !this.qids[p].equals(this.qids[p - 1]))
+				starts[n++] = p;
+		}
+		starts[n++] = this.size;
+		return Arrays.copyOf(starts, n);
+	}
+
+	/**
+	 *  Write the pairs in the SVM-light format, "label qid:qid 1:value
+	 *  2:value ... # external_docid" per line.
+	 *  @param output The destination.
+	 *  @throws IOException Error accessing the index.
+	 */
+	public void write(PrintWriter output) throws IOException {
+		StringBuilder line = new StringBuilder();
+		for (int p = 0; p < this.size; p++) {
+			line.setLength(0);
+			line.append(this.labels[p]).append(" qid:").append(this.qids[p]).append(' ');
+			for (int f = 0; f < this.numOfFeatures; f++)
+				line.append(f + 1).append(':').append(this.values[f][p]).append(' ');
+			line.append("# ").append(Idx.getExternalDocid(this.docids[p]));
+			output.print(line.append('\n'));
+		}
+	}
+
+	public int size() {
+		return this.size;
+	}
+
+	public int getNumOfFeatures() {
+		return this.numOfFeatures;
+	}
+
+	public String getQid(int pair) {
+		return this.qids[pair];
+	}
+
+	public int getDocid(int pair) {
+		return this.docids[pair];
+	}
+
+	public int getLabel(int pair) {
+		return this.labels[pair];
+	}
+}
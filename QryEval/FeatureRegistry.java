@@ -0,0 +1,106 @@
+import java.util.*;
+
+/**
+ *  The learning to rank features, in feature order.  The default registry
+ *  has the 18 built-in features; more features are added by registering
+ *  their FeatureExtractor, e.g. by class name from the
+ *  letor:featureExtractors parameter, and get the next feature ids.
+ */
+public class FeatureRegistry {
+
+	//  --------------- Constants and variables ---------------------
+
+	private final List<FeatureExtractor> extractors = new ArrayList<FeatureExtractor>();
+
+	//  --------------- Methods ---------------------------------------
+
+	/**
+	 *  @return A registry with the built-in features f1 to f18.
+	 */
+	public static FeatureRegistry createDefault() {
+		FeatureRegistry registry = new FeatureRegistry();
+		registry.register(new FeatureExtractorSpam());
+		registry.register(new FeatureExtractorUrlDepth());
+		registry.register(new FeatureExtractorWikipedia());
+		registry.register(new FeatureExtractorPageRank());
+		for (String field : new String[] { "body", "title", "url", "inlink" }) {
+			registry.register(new FeatureExtractorBM25(field));
+			registry.register(new FeatureExtractorIndri(field));
+			registry.register(new FeatureExtractorTermOverlap(field));
+		}
+		registry.register(new FeatureExtractorVsm());
+		registry.register(new FeatureExtractorPrior());
+		return registry;
+	}
+
+	/**
+	 *  Add a feature after the registered ones.
+	 *  @param extractor The extractor of the feature.
+	 *  @return The 0-based index of the feature.
+	 */
+	public int register(FeatureExtractor extractor) {
+		this.extractors.add(extractor);
+		return this.extractors.size() - 1;
+	}
+
+	/**
+	 *  Add a feature whose extractor class has a public no-argument
+	 *  constructor.
+	 *  @param className The name of a FeatureExtractor subclass.
+	 *  @return The 0-based index of the feature.
+	 *  @throws IllegalArgumentException The class is not a feature extractor.
+	 */
+	public int register(String className) {
+		try {
+			return this.register(Class.forName(className)
+					.asSubclass(FeatureExtractor.class)
+					.getDeclaredConstructor().newInstance());
+		} catch (ClassNotFoundException e) {
+			throw new IllegalArgumentException("Unknown feature extractor " + className);
+		} catch (ClassCastException e) {
+			throw new IllegalArgumentException(className + " is not a FeatureExtractor");
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalArgumentException("Can't create feature extractor " + className, e);
+		}
+	}
+
+	/**
+	 *  @return The number of features.
+	 */
+	public int size() {
+		return this.extractors.size();
+	}
+
+	/**
+	 *  @param i The 0-based index of a feature.
+	 *  @return The extractor of the feature.
+	 */
+	public FeatureExtractor get(int i) {
+		return this.extractors.get(i);
+	}
+
+	/**
+	 *  @param disabled The 0-based indexes of the disabled features.
+	 *  @return The 0-based indexes of the enabled features, in order.
+	 */
+	public Set<Integer> getEnabled(Set<Integer> disabled) {
+		Set<Integer> enabled = new TreeSet<Integer>();
+		for (int i = 0; i < this.extractors.size(); i++) {
+			if (!disabled.contains(i))
+				enabled.add(i);
+		}
+		return enabled;
+	}
+
+	/**
+	 *  @param features The 0-based indexes of some features, e.g. the
+	 *  enabled ones.
+	 *  @return The inputs that the features read.
+	 */
+	public FeatureInputs getInputs(Set<Integer> features) {
+		FeatureInputs inputs = new FeatureInputs();
+		for (int i : features)
+			this.extractors.get(i).addInputs(inputs);
+		return inputs;
+	}
+}
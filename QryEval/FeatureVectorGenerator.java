@@ -0,0 +1,273 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  Generates the learning to rank feature vectors of several queries on a
+ *  pool of worker threads.  The documents of each query are split into
+ *  chunks, and chunks of all submitted queries run in parallel, so a
+ *  query with many candidates and a file of many short queries both keep
+ *  the workers busy.  The feature vectors of a query are normalized by
+ *  its own minimum and maximum feature values once all of its chunks are
+ *  done.
+ *  <p>
+ *  Queries are collected one at a time, in the order they were submitted,
+ *  with next(), so a caller that writes each query as soon as it is done
+ *  and keeps only a few queries in flight needs memory for those queries
+ *  only.  finish() collects every remaining query at once.
+ *  </p>
+ *  <p>
+ *  Each chunk stores its feature values in a small FeatureMatrix as soon
+ *  as they are computed, so the term vectors of its documents can be
+ *  freed before the next chunk runs.
+ *  </p>
+ *  <p>
+ *  With the model's FeatureCache, a chunk only computes the features that
+ *  are missing from the cache for at least one of its documents, and
+ *  only loads the inputs of those features; a chunk that is fully cached
+ *  doesn't read the index at all.  The raw values of each query are
+ *  written back to the cache when the query is collected.
+ *  </p>
+ */
+public class FeatureVectorGenerator {
+
+	//  --------------- Constants and variables ---------------------
+
+	private static final int CHUNK_SIZE = 25;
+
+	private final RetrievalModelletor model;
+	private final Map<Integer, Double> pageRankMap;
+	private final Set<Integer> enabled;	// the enabled features
+	private final FeatureCache cache;	// null without a cache
+	private final String[] cacheKeys;	// the cache key of each enabled feature
+	private final ExecutorService pool;
+
+	//  A submitted query that has not been collected yet.
+	private static class Query {
+		private String qid;
+		private String[] queryTokens;
+		private FeatureCache.Entry cached;	// null without a cache
+		private List<Future<FeatureMatrix>> chunks;
+	}
+
+	//  The submitted queries that have not been collected yet, in the
+	//  order of submission.
+	private final LinkedList<Query> queries = new LinkedList<Query>();
+
+	//  --------------- Methods ---------------------------------------
+
+	/**
+	 *  @param model The letor model, which has the feature parameters.
+	 *  @param pageRankMap The PageRank score of each internal docid.
+	 *  @param numOfThreads The number of worker threads.  With 1 thread,
+	 *  feature vectors are generated on the caller's thread.
+	 */
+	public FeatureVectorGenerator(RetrievalModelletor model,
+			Map<Integer, Double> pageRankMap, int numOfThreads) {
+		this.model = model;
+		this.pageRankMap = pageRankMap;
+		FeatureRegistry features = model.getFeatureRegistry();
+		this.enabled = features.getEnabled(model.getFeatureDisable());
+		this.cache = model.getFeatureCache();
+		this.cacheKeys = new String[features.size()];
+		if (this.cache != null) {
+			for (int i : this.enabled)
+				this.cacheKeys[i] = features.get(i).getCacheKey(model);
+		}
+		this.pool = (numOfThreads > 1) ?
+				Executors.newFixedThreadPool(numOfThreads) : null;
+	}
+
+	/**
+	 *  Submit the <query, document> pairs of a query.
+	 *  @param qid The query id.
+	 *  @param queryTokens The stems of the query.
+	 *  @param qrel The relevance of each internal docid to generate a
+	 *  feature vector for.
+	 *  @throws IOException Error accessing the index, when feature vectors
+	 *  are generated on the caller's thread.
+	 */
+	public void add(final String qid, final String[] queryTokens,
+			Map<Integer, Integer> qrel) throws IOException {
+
+		final Query query = new Query();
+		query.qid = qid;
+		query.queryTokens = queryTokens;
+		query.cached = (this.cache != null) ? this.cache.get(qid, queryTokens) : null;
+		query.chunks = new ArrayList<Future<FeatureMatrix>>();
+
+		List<Map.Entry<Integer, Integer>> entries =
+				new ArrayList<Map.Entry<Integer, Integer>>(qrel.entrySet());
+
+		for (int start = 0; start < entries.size(); start += CHUNK_SIZE) {
+			final List<Map.Entry<Integer, Integer>> chunk =
+					entries.subList(start, Math.min(entries.size(), start + CHUNK_SIZE));
+			final Set<Integer> compute = this.getMissing(query.cached, chunk);
+			Callable<FeatureMatrix> task = new Callable<FeatureMatrix>() {
+				public FeatureMatrix call() throws IOException {
+					return generate(query, chunk, compute);
+				}
+			};
+
+			if (this.pool == null) {
+				FutureTask<FeatureMatrix> done = new FutureTask<FeatureMatrix>(task);
+				done.run();
+				query.chunks.add(done);
+			} else {
+				query.chunks.add(this.pool.submit(task));
+			}
+		}
+		this.queries.add(query);
+	}
+
+	//  The enabled features that are not cached for some document of a
+	//  chunk.
+	private Set<Integer> getMissing(FeatureCache.Entry cached,
+			List<Map.Entry<Integer, Integer>> chunk) {
+		if (cached == null)
+			return this.enabled;
+
+		Set<Integer> missing = new TreeSet<Integer>();
+		int hits = 0;
+		for (int i : this.enabled) {
+			for (Map.Entry<Integer, Integer> pair : chunk) {
+				if (cached.get(this.cacheKeys[i], pair.getKey()) != null)
+					hits++;
+				else
+					missing.add(i);
+			}
+		}
+		this.cache.addLookups(this.enabled.size() * chunk.size(), hits);
+		return missing;
+	}
+
+	private FeatureMatrix generate(Query query,
+			List<Map.Entry<Integer, Integer>> chunk, Set<Integer> compute)
+			throws IOException {
+
+		// fetch the term vectors that the computed features read for the
+		// chunk as one batch
+		int[] docids = new int[chunk.size()];
+		for (int i = 0; i < docids.length; i++)
+			docids[i] = chunk.get(i).getKey();
+		List<HashMap<String, TermVector>> termVectors = FeatureVector
+				.fetchTermVectors(docids, this.model.getFeatureRegistry()
+						.getInputs(compute));
+
+		FeatureMatrix matrix = new FeatureMatrix(
+				this.model.getFeatureRegistry().size(), docids.length);
+		for (int i = 0; i < docids.length; i++) {
+			double pageRankScore = FeatureVector.INVALID_FEATURE;
+			if (this.pageRankMap.containsKey(docids[i]))
+				pageRankScore = this.pageRankMap.get(docids[i]);
+
+			new FeatureVector(query.qid, query.queryTokens, docids[i],
+					chunk.get(i).getValue(), pageRankScore, this.model,
+					termVectors.get(i), compute,
+					this.getCached(query.cached, docids[i], matrix.getNumOfFeatures()))
+					.addTo(matrix);
+			termVectors.set(i, null);
+		}
+		return matrix;
+	}
+
+	//  The cached value of each enabled feature for a document, where a
+	//  cached NaN is FeatureVector.INVALID_FEATURE.  Features that the
+	//  chunk computes are not used.
+	private double[] getCached(FeatureCache.Entry cached, int docid,
+			int numOfFeatures) {
+		double[] values = new double[numOfFeatures];
+		if (cached == null)
+			return values;
+
+		for (int i : this.enabled) {
+			Float value = cached.get(this.cacheKeys[i], docid);
+			if (value != null)
+				values[i] = value.isNaN() ? FeatureVector.INVALID_FEATURE : value;
+		}
+		return values;
+	}
+
+	/**
+	 *  @return The number of submitted queries that have not been
+	 *  collected yet.
+	 */
+	public int pending() {
+		return this.queries.size();
+	}
+
+	/**
+	 *  Wait for the earliest submitted query that has not been collected
+	 *  yet, and normalize its feature vectors.
+	 *  @return The feature vectors of the query, sorted by docid, or null
+	 *  if no query is pending.
+	 *  @throws IOException Error accessing the index.
+	 *  @throws InterruptedException The waiting thread was interrupted.
+	 */
+	public FeatureMatrix next() throws IOException, InterruptedException {
+		Query query = this.queries.poll();
+		if (query == null)
+			return null;
+
+		FeatureMatrix matrix = new FeatureMatrix(
+				this.model.getFeatureRegistry().size(), query.chunks.size() * CHUNK_SIZE);
+		for (Future<FeatureMatrix> chunk : query.chunks)
+			matrix.addAll(getResult(chunk));
+
+		// store the raw values before they are normalized
+		if (query.cached != null) {
+			for (int i : this.enabled) {
+				for (int p = 0; p < matrix.size(); p++)
+					query.cached.put(this.cacheKeys[i], matrix.getDocid(p), matrix.get(i, p));
+			}
+			this.cache.put(query.qid, query.queryTokens, query.cached);
+		}
+
+		matrix.normalize(0, matrix.size());
+		return matrix.sort();
+	}
+
+	/**
+	 *  Wait for every remaining query, normalize the feature vectors of
+	 *  each query, and stop the workers.
+	 *  @return The feature vectors, sorted by qid, then docid.
+	 *  @throws IOException Error accessing the index.
+	 *  @throws InterruptedException The waiting thread was interrupted.
+	 */
+	public FeatureMatrix finish() throws IOException, InterruptedException {
+		FeatureMatrix matrix = new FeatureMatrix(
+				this.model.getFeatureRegistry().size(), 1024);
+		try {
+			FeatureMatrix query;
+			while ((query = this.next()) != null)
+				matrix.addAll(query);
+		} finally {
+			this.close();
+		}
+
+		// sort the pairs based on the qid and then docid
+		return matrix.sort();
+	}
+
+	/**
+	 *  Drop the queries that have not been collected, and stop the workers.
+	 */
+	public void close() {
+		this.queries.clear();
+		if (this.pool != null)
+			this.pool.shutdownNow();
+	}
+
+	private static <T> T getResult(Future<T> future)
+			throws IOException, InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+}
@@ -0,0 +1,416 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ *  A compact forward index: for each document and field, the sorted ids
+ *  of the document's stems, their frequencies, the field length in
+ *  positions, and optionally the stem at each position.  It is built
+ *  offline from the Lucene term vectors (run it to see a usage message)
+ *  and lets TermVector skip Lucene's term vector files.
+ *  <p>
+ *  A directory holds one term dictionary that is shared by every field
+ *  (terms.dict) and one memory-mapped file per field (FIELD.fwd).  The
+ *  dictionary is sorted in Lucene's term order, so the sorted stem ids
+ *  of a document are in the same order as the stems of its Lucene term
+ *  vector.  A field file has a header, the records of the documents,
+ *  and a table of record offsets:
+ *  </p>
+ *  <pre>
+ *    header:  magic, version, index version, number of documents,
+ *             whether positions are stored, offset of the table
+ *    record:  number of stems, field length in positions,
+ *             stem ids, stem frequencies, [stem index at each position]
+ *    table:   offset of each record, plus the end of the last record
+ *  </pre>
+ *  <p>
+ *  Every value is a 4-byte int except the 8-byte offsets, and the table
+ *  is 8-byte aligned, so values never straddle the 1GB chunks that the
+ *  file is mapped in.
+ *  </p>
+ */
+public class ForwardIndex {
+
+	//  --------------- Constants and variables ---------------------
+
+	static String usage =
+			"Usage:  java ForwardIndex -index INDEX_PATH -output DIRECTORY [-positions]\n\n" +
+			"Builds a forward index of the url, keywords, title, body and inlink\n" +
+			"fields of the Lucene index.  -positions also stores the stem at each\n" +
+			"position.\n";
+
+	private static final String[] FIELDS = { "url", "keywords", "title", "body", "inlink" };
+	private static final String DICTIONARY = "terms.dict";
+	private static final String SUFFIX = ".fwd";
+
+	private static final int MAGIC = 0x46574458;	// "FWDX"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 32;
+
+	private static final int CHUNK_BITS = 30;
+	private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private String[] terms;
+	private Map<String, FieldFile> fields = new HashMap<String, FieldFile>();
+
+	/**
+	 *  The forward index of one document field.  Empty fields have no
+	 *  stems and a length of 0.
+	 */
+	public static class Document {
+
+		/**
+		 *  The ids of the field's stems, in increasing order.
+		 */
+		public int[] termIds;
+
+		/**
+		 *  The frequency (tf) of each stem.
+		 */
+		public int[] tfs;
+
+		/**
+		 *  The 1-based index in termIds of the stem at each position,
+		 *  0 for stopwords, or null if positions are not stored.
+		 */
+		public int[] positions;
+
+		/**
+		 *  The field length in positions, including stopwords.
+		 */
+		public int length;
+	}
+
+	/**
+	 *  A memory-mapped field file.
+	 */
+	private static class FieldFile {
+		private MappedByteBuffer[] chunks;
+		private int numOfDocs;
+		private boolean hasPositions;
+		private long tableOffset;
+
+		private int getInt(long offset) {
+			return this.chunks[(int) (offset >>> CHUNK_BITS)]
+					.getInt((int) (offset & (CHUNK_SIZE - 1)));
+		}
+
+		private long getLong(long offset) {
+			return this.chunks[(int) (offset >>> CHUNK_BITS)]
+					.getLong((int) (offset & (CHUNK_SIZE - 1)));
+		}
+
+		private void getInts(long offset, int[] values) {
+			for (int i = 0; i < values.length; i++)
+				values[i] = this.getInt(offset + 4L * i);
+		}
+	}
+
+	//  --------------- Methods ---------------------------------------
+
+	/**
+	 *  Open a forward index that was built for the open Lucene index.
+	 *  @param directoryPath The directory of the forward index.
+	 *  @throws IllegalArgumentException The forward index is missing,
+	 *  damaged, or was built for a different version of the index.
+	 *  @throws IOException Error reading the forward index.
+	 */
+	public ForwardIndex(String directoryPath) throws IOException {
+		File directory = new File(directoryPath);
+		this.terms = readDictionary(new File(directory, DICTIONARY));
+
+		long indexVersion = ((DirectoryReader) Idx.INDEXREADER).getVersion();
+
+		for (String field : FIELDS) {
+			File file = new File(directory, field + SUFFIX);
+			if (!file.exists())
+				continue;
+
+			FieldFile f = mapFieldFile(file);
+			if (f.getLong(8) != indexVersion || f.numOfDocs != Idx.INDEXREADER.maxDoc()) {
+				throw new IllegalArgumentException(
+						"Error:  The forward index " + file + " is out of date.");
+			}
+			this.fields.put(field, f);
+		}
+	}
+
+	/**
+	 *  @param fieldName The name of a document field.
+	 *  @return True if the forward index covers the field.
+	 */
+	public boolean hasField(String fieldName) {
+		return this.fields.containsKey(fieldName);
+	}
+
+	/**
+	 *  @param fieldName The name of a document field.
+	 *  @return True if the forward index stores positions for the field.
+	 */
+	public boolean hasPositions(String fieldName) {
+		FieldFile f = this.fields.get(fieldName);
+		return (f != null) && f.hasPositions;
+	}
+
+	/**
+	 *  Get the string of a stem id.  The strings are shared, so callers
+	 *  don't allocate a String per stem.
+	 *  @param termId A stem id.
+	 *  @return The stem.
+	 */
+	public String getTerm(int termId) {
+		return this.terms[termId];
+	}
+
+	/**
+	 *  @return The number of stems in the shared term dictionary.
+	 */
+	public int numOfTerms() {
+		return this.terms.length;
+	}
+
+	/**
+	 *  Read one document field.  It is safe to call this from several
+	 *  threads.
+	 *  @param docid An internal document id.
+	 *  @param fieldName The name of a field that the index covers.
+	 *  @return The document field.
+	 */
+	public Document getDocument(int docid, String fieldName) {
+		FieldFile f = this.fields.get(fieldName);
+		if (f == null) {
+			throw new IllegalArgumentException(
+					"Error:  The forward index doesn't cover the " + fieldName + " field.");
+		}
+
+		long offset = f.getLong(f.tableOffset + 8L * docid);
+		int numOfStems = f.getInt(offset);
+
+		Document d = new Document();
+		d.length = f.getInt(offset + 4);
+		d.termIds = new int[numOfStems];
+		d.tfs = new int[numOfStems];
+		offset += 8;
+		f.getInts(offset, d.termIds);
+		offset += 4L * numOfStems;
+		f.getInts(offset, d.tfs);
+		offset += 4L * numOfStems;
+
+		if (f.hasPositions) {
+			d.positions = new int[d.length];
+			f.getInts(offset, d.positions);
+		}
+		return d;
+	}
+
+	private static String[] readDictionary(File file) throws IOException {
+		DataInputStream input = null;
+		try {
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+				throw new IllegalArgumentException(
+						"Error:  " + file + " is not a forward index dictionary.");
+			}
+
+			String[] terms = new String[input.readInt()];
+			byte[] bytes = new byte[64];
+			for (int i = 0; i < terms.length; i++) {
+				int length = input.readInt();
+				if (length > bytes.length)
+					bytes = new byte[Math.max(length, 2 * bytes.length)];
+				input.readFully(bytes, 0, length);
+				terms[i] = new String(bytes, 0, length, UTF8);
+			}
+			return terms;
+		} finally {
+			if (input != null)
+				input.close();
+		}
+	}
+
+	private static FieldFile mapFieldFile(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+
+			FieldFile f = new FieldFile();
+			f.chunks = new MappedByteBuffer[(int) ((size + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+			for (int i = 0; i < f.chunks.length; i++) {
+				long start = i * CHUNK_SIZE;
+				f.chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+						Math.min(CHUNK_SIZE, size - start));
+			}
+
+			if (size < HEADER_BYTES || f.getInt(0) != MAGIC || f.getInt(4) != VERSION) {
+				throw new IllegalArgumentException(
+						"Error:  " + file + " is not a forward index file.");
+			}
+			f.numOfDocs = f.getInt(16);
+			f.hasPositions = (f.getInt(20) != 0);
+			f.tableOffset = f.getLong(24);
+			return f;
+		} finally {
+			raf.close();	// the mapping stays valid
+		}
+	}
+
+	/**
+	 *  Build a forward index from the term vectors of the open Lucene
+	 *  index.  Fields without term vectors are skipped.
+	 *  @param directoryPath The directory of the forward index.
+	 *  @param storePositions If true, store the stem at each position.
+	 *  @throws IOException Error accessing the Lucene index or writing
+	 *  the forward index.
+	 */
+	public static void build(String directoryPath, boolean storePositions)
+			throws IOException {
+
+		File directory = new File(directoryPath);
+		directory.mkdirs();
+
+		//  The shared dictionary is the union of the fields' terms, in
+		//  Lucene's term order.
+
+		TreeSet<BytesRef> vocabulary =
+				new TreeSet<BytesRef>(BytesRef.getUTF8SortedAsUnicodeComparator());
+		for (String field : FIELDS) {
+			Terms fieldTerms = MultiFields.getTerms(Idx.INDEXREADER, field);
+			if (fieldTerms == null)
+				continue;
+			TermsEnum ithTerm = fieldTerms.iterator(null);
+			BytesRef term;
+			while ((term = ithTerm.next()) != null)
+				vocabulary.add(BytesRef.deepCopyOf(term));
+		}
+
+		Map<String, Integer> termIds = new HashMap<String, Integer>();
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(new File(directory, DICTIONARY))));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeInt(vocabulary.size());
+			for (BytesRef term : vocabulary) {
+				termIds.put(term.utf8ToString(), termIds.size());
+				output.writeInt(term.length);
+				output.write(term.bytes, term.offset, term.length);
+			}
+		} finally {
+			output.close();
+		}
+		vocabulary = null;
+
+		for (String field : FIELDS) {
+			if (!hasTermVectors(field))
+				continue;
+			System.out.println("Indexing the " + field + " field.");
+			buildField(new File(directory, field + SUFFIX), field, termIds, storePositions);
+		}
+	}
+
+	private static boolean hasTermVectors(String field) {
+		FieldInfo info = MultiFields.getMergedFieldInfos(Idx.INDEXREADER).fieldInfo(field);
+		return (info != null) && info.hasVectors();
+	}
+
+	private static void buildField(File file, String field, Map<String, Integer> termIds,
+			boolean storePositions) throws IOException {
+
+		int numOfDocs = Idx.INDEXREADER.maxDoc();
+		long[] offsets = new long[numOfDocs + 1];
+		long offset = HEADER_BYTES;
+
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file), 1 << 16));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeLong(((DirectoryReader) Idx.INDEXREADER).getVersion());
+			output.writeInt(numOfDocs);
+			output.writeInt(storePositions ? 1 : 0);
+			output.writeLong(0);	// the table offset is filled in below
+
+			for (int docid = 0; docid < numOfDocs; docid++) {
+				offsets[docid] = offset;
+
+				TermVector tv = new TermVector(docid, field);
+				int numOfStems = Math.max(0, tv.stemsLength() - 1);
+				int length = tv.positionsLength();
+
+				output.writeInt(numOfStems);
+				output.writeInt(length);
+				for (int i = 1; i <= numOfStems; i++)
+					output.writeInt(termIds.get(tv.stemString(i)));
+				for (int i = 1; i <= numOfStems; i++)
+					output.writeInt(tv.stemFreq(i));
+				offset += 8 + 8L * numOfStems;
+
+				if (storePositions) {
+					for (int i = 0; i < length; i++)
+						output.writeInt(tv.stemAt(i));
+					offset += 4L * length;
+				}
+			}
+			offsets[numOfDocs] = offset;
+
+			if (offset % 8 != 0) {
+				output.writeInt(0);
+				offset += 4;
+			}
+			for (long o : offsets)
+				output.writeLong(o);
+		} finally {
+			output.close();
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(24);
+			raf.writeLong(offset);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 *  Build a forward index from the command line.
+	 *  @param args See usage.
+	 *  @throws IOException Error accessing the Lucene index or writing
+	 *  the forward index.
+	 */
+	public static void main(String[] args) throws IOException {
+		String indexPath = null;
+		String outputPath = null;
+		boolean storePositions = false;
+
+		for (int i = 0; i < args.length; i++) {
+			if ("-index".equals(args[i]) && i + 1 < args.length) {
+				indexPath = args[++i];
+			} else if ("-output".equals(args[i]) && i + 1 < args.length) {
+				outputPath = args[++i];
+			} else if ("-positions".equals(args[i])) {
+				storePositions = true;
+			} else {
+				indexPath = null;
+				break;
+			}
+		}
+
+		if (indexPath == null || outputPath == null) {
+			System.err.println(usage);
+			System.exit(1);
+		}
+
+		Idx.initialize(indexPath);
+		build(outputPath, storePositions);
+	}
+}
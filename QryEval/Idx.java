@@ -8,6 +8,8 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.index.*;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 
 /**
  *  The interface to the Lucene index.
@@ -17,7 +19,21 @@ public class Idx {
   //  --------------- Constants and variables ---------------------
 
   public static IndexReader INDEXREADER=null;
+  private static String INDEXPATH=null;
   private static DocLengthStore DOCLENGTHSTORE;
+  private static ForwardIndex FORWARDINDEX = null;
+
+  /**
+   *  The maximum memory used by cached term bitmaps, in bytes.
+   */
+  private static long BITMAPCACHE_MAX_BYTES = 64L * 1024 * 1024;
+  private static long BITMAPCACHE_BYTES = 0;
+
+  /**
+   *  Recently used term bitmaps, keyed by "field:term", in LRU order.
+   */
+  private static LinkedHashMap<String, DocidBitmap> BITMAPCACHE =
+    new LinkedHashMap<String, DocidBitmap> (16, 0.75f, true);
 
   //  --------------- Methods ---------------------------------------
 
@@ -33,6 +49,85 @@ public class Idx {
     return d.get (attributeName);
   }
 
+  /**
+   *  Get several attributes of the specified document.  Only the named
+   *  stored fields are read.
+   *  @param attributeNames Names of attributes
+   *  @param docid The internal docid in the lucene index.
+   *  @return the value of each attribute, or null if the document doesn't
+   *  have it
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  public static Map<String, String> getAttributes (Set<String> attributeNames, int docid)
+    throws IOException {
+    Map<String, String> attributes = new HashMap<String, String> ();
+    if (attributeNames.isEmpty ())
+      return attributes;
+
+    Document d = Idx.INDEXREADER.document (docid, attributeNames);
+    for (String name : attributeNames)
+      attributes.put (name, d.get (name));
+    return attributes;
+  }
+
+  /**
+   *  Get the documents that contain a term in a field as a compressed
+   *  bitmap.  Bitmaps of recently used terms are cached, so Boolean
+   *  queries over common terms don't read their postings again.
+   *  @param termString The processed (stemmed, lower-cased, etc) term string.
+   *  @param fieldString The field that the term occurs in.
+   *  @return the documents that contain the term
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  public static synchronized DocidBitmap getDocidBitmap (String termString, String fieldString)
+    throws IOException {
+
+    String key = fieldString + ":" + termString;
+    DocidBitmap bitmap = Idx.BITMAPCACHE.get (key);
+
+    if (bitmap != null)
+      return bitmap;
+
+    //  Only the docids are needed, so don't ask Lucene for positions.
+
+    int[] docids = new int[0];
+    int n = 0;
+    BytesRef termBytes = new BytesRef (termString);
+    DocsEnum iList =
+      MultiFields.getTermDocsEnum (Idx.INDEXREADER,
+                                   MultiFields.getLiveDocs (Idx.INDEXREADER),
+                                   fieldString, termBytes, DocsEnum.FLAG_NONE);
+
+    if (iList != null) {
+      docids = new int[Idx.INDEXREADER.docFreq (new Term (fieldString, termBytes))];
+
+      int docid;
+      while ((docid = iList.nextDoc ()) != DocIdSetIterator.NO_MORE_DOCS) {
+        if (n == docids.length)
+          docids = Arrays.copyOf (docids, 2 * n + 1);
+        docids[n++] = docid;
+      }
+    }
+
+    bitmap = DocidBitmap.fromSortedDocids (docids, n);
+
+    //  Evict the least recently used bitmaps until the new one fits.
+
+    Idx.BITMAPCACHE.put (key, bitmap);
+    Idx.BITMAPCACHE_BYTES += bitmap.sizeInBytes ();
+
+    Iterator<Map.Entry<String, DocidBitmap>> it = Idx.BITMAPCACHE.entrySet ().iterator ();
+    while (Idx.BITMAPCACHE_BYTES > Idx.BITMAPCACHE_MAX_BYTES && it.hasNext ()) {
+      DocidBitmap eldest = it.next ().getValue ();
+      if (eldest == bitmap)
+        break;
+      Idx.BITMAPCACHE_BYTES -= eldest.sizeInBytes ();
+      it.remove ();
+    }
+
+    return bitmap;
+  }
+
   /**
    *  Get the number of documents that contain the specified field.
    *  @param fieldName the field name
@@ -91,6 +186,63 @@ public class Idx {
     }
   }
 
+  /**
+   *  Get the internal document ids of several documents at once.  The
+   *  external ids are looked up in sorted order with one pass over the
+   *  externalId term dictionary.
+   *  @param externalIds The external ids of the documents.
+   *  @return The internal ids, in the order of externalIds, or -1 for
+   *  documents that aren't in the index.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  public static int[] getInternalDocids (final String[] externalIds)
+    throws IOException {
+
+    int[] docids = new int[externalIds.length];
+    Arrays.fill (docids, -1);
+
+    Terms terms = MultiFields.getTerms (Idx.INDEXREADER, "externalId");
+    if (terms == null)
+      return docids;
+
+    final BytesRef[] keys = new BytesRef[externalIds.length];
+    Integer[] order = new Integer[externalIds.length];
+    for (int i=0; i<externalIds.length; i++) {
+      keys[i] = new BytesRef (externalIds[i]);
+      order[i] = i;
+    }
+    Arrays.sort (order, new Comparator<Integer> () {
+      public int compare (Integer a, Integer b) {
+        return keys[a].compareTo (keys[b]);
+      }
+    });
+
+    TermsEnum termsEnum = terms.iterator (null);
+    Bits liveDocs = MultiFields.getLiveDocs (Idx.INDEXREADER);
+    DocsEnum docsEnum = null;
+
+    for (int i : order) {
+      if (termsEnum.seekExact (keys[i], true)) {
+        docsEnum = termsEnum.docs (liveDocs, docsEnum, DocsEnum.FLAG_NONE);
+        int docid = docsEnum.nextDoc ();
+        if (docid != DocIdSetIterator.NO_MORE_DOCS)
+          docids[i] = docid;
+      }
+    }
+
+    return docids;
+  }
+
+  /**
+   *  Get a string that identifies the index and its version.  It
+   *  changes whenever the index is updated, so it can be used to
+   *  invalidate data derived from the index.
+   *  @return The index path and version.
+   */
+  public static String getIndexVersion () {
+    return Idx.INDEXPATH + "@" + ((DirectoryReader) Idx.INDEXREADER).getVersion ();
+  }
+
   /**
    *  Get the total number of documents in the corpus.
    *  @return The total number of documents.
@@ -113,6 +265,26 @@ public class Idx {
     return Idx.INDEXREADER.getSumTotalTermFreq (fieldName);
   }
 
+  /**
+   *  Get the forward index that TermVector reads from.
+   *  @return The forward index, or null if none is open.
+   */
+  public static ForwardIndex getForwardIndex () {
+    return Idx.FORWARDINDEX;
+  }
+
+  /**
+   *  Open a forward index that was built for the open Lucene index.
+   *  TermVectors of the fields that it covers are read from it.
+   *  @param forwardIndexPath A directory that contains a forward index.
+   *  @throws IllegalArgumentException The forward index is out of date.
+   *  @throws IOException Error accessing the forward index.
+   */
+  public static void openForwardIndex (String forwardIndexPath)
+    throws IllegalArgumentException, IOException {
+    Idx.FORWARDINDEX = new ForwardIndex (forwardIndexPath);
+  }
+
   /**
    *  Open a Lucene index and the associated DocLengthStore.
    *  @param indexPath A directory that contains a Lucene index.
@@ -124,6 +296,11 @@ public class Idx {
 
     //  Open the Lucene index
 
+    Idx.BITMAPCACHE.clear ();
+    Idx.BITMAPCACHE_BYTES = 0;
+    Idx.FORWARDINDEX = null;
+
+    Idx.INDEXPATH = new File (indexPath).getCanonicalPath ();
     Idx.INDEXREADER =
       DirectoryReader.open (FSDirectory.open (new File (indexPath)));
   
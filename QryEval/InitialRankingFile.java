@@ -0,0 +1,263 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ *  The top documents of each query in an initial ranking file, e.g. the
+ *  fbInitialRankingFile of query expansion.  The file is in TREC format,
+ *  "qid Q0 external_docid rank score run_name" per line.
+ *  <p>
+ *  Only the lines of each query up to its first n documents that are in
+ *  the index are parsed, and their external ids are resolved to internal
+ *  docids in batches.  The result is kept in a compact binary file next
+ *  to the ranking file (its name plus ".bin"), which later runs read
+ *  instead of the text file as long as the ranking file and the index
+ *  haven't changed and it has at least n documents per query.  If the
+ *  binary file can't be written, e.g. because the directory is
+ *  read-only, later runs simply read the text file again.
+ *  </p>
+ */
+public class InitialRankingFile {
+
+	//  --------------- Constants and variables ---------------------
+
+	private static final int MAGIC = 0x46424952;	// "FBIR"
+	private static final int VERSION = 2;
+	private static final String SUFFIX = ".bin";
+
+	/**
+	 *  The top documents of one query, best first.
+	 */
+	public static class Ranking {
+		public int[] docids;
+		public double[] scores;
+	}
+
+	//  --------------- Methods ---------------------------------------
+
+	/**
+	 *  Load the top documents of each query.  Idx must be initialized.
+	 *  @param rankingFileName The path of the ranking file.
+	 *  @param n The number of documents to keep per query.
+	 *  @return The rankings, in the order of the queries in the file.
+	 *  @throws IOException Error reading the ranking file or the index.
+	 */
+	public static Map<String, Ranking> load(String rankingFileName, int n)
+			throws IOException {
+
+		File textFile = new File(rankingFileName);
+		File binaryFile = new File(rankingFileName + SUFFIX);
+
+		Map<String, Ranking> result = readBinary(binaryFile, textFile, n);
+		if (result != null)
+			return result;
+
+		result = readText(textFile, n);
+		writeBinary(binaryFile, textFile, n, result);
+		return result;
+	}
+
+	/**
+	 *  Read the text file, stopping at n documents per query.  Lines after
+	 *  a query's first n are skipped without being parsed, and the ids are
+	 *  resolved in one batch; if some of them are not in the index, the
+	 *  file is read again for the lines that follow, until each query has
+	 *  n documents or no more lines.
+	 */
+	private static Map<String, Ranking> readText(File textFile, int n)
+			throws IOException {
+
+		Map<String, Query> queries = new LinkedHashMap<String, Query>();
+		boolean firstPass = true;
+		boolean again = true;
+
+		while (again) {
+			readLines(textFile, n, queries, firstPass);
+			firstPass = false;
+
+			//  Resolve the ids of this pass at once.
+
+			List<String> all = new ArrayList<String>();
+			for (Query q : queries.values())
+				all.addAll(q.ids);
+			int[] docids = Idx.getInternalDocids(all.toArray(new String[all.size()]));
+
+			again = false;
+			int next = 0;
+			for (Query q : queries.values()) {
+				for (int i = 0; i < q.ids.size(); i++, next++) {
+					if (docids[next] < 0) {
+						System.err.println("Warning:  " + q.ids.get(i) + " in " + textFile
+								+ " is not in the index.");
+						continue;
+					}
+					q.ranking.docids[q.size] = docids[next];
+					q.ranking.scores[q.size] = q.idScores[i];
+					q.size++;
+				}
+				q.ids.clear();
+				again |= q.more && q.size < n;
+			}
+		}
+
+		Map<String, Ranking> result = new LinkedHashMap<String, Ranking>();
+		for (Map.Entry<String, Query> entry : queries.entrySet()) {
+			Query q = entry.getValue();
+			q.ranking.docids = Arrays.copyOf(q.ranking.docids, q.size);
+			q.ranking.scores = Arrays.copyOf(q.ranking.scores, q.size);
+			result.put(entry.getKey(), q.ranking);
+		}
+		return result;
+	}
+
+	/**
+	 *  A query while the text file is read: the documents found so far, and
+	 *  the ids and scores of the lines parsed by the current pass.
+	 */
+	private static class Query {
+		Ranking ranking = new Ranking();
+		int size = 0;
+		List<String> ids = new ArrayList<String>();
+		double[] idScores;
+		int linesRead = 0;	// lines of the query parsed by earlier passes
+		boolean more = false;	// the current pass skipped some of its lines
+	}
+
+	//  One pass over the text file.  The lines of each query up to its
+	//  linesRead were parsed by an earlier pass; the lines that follow are
+	//  parsed until the query could have n documents.  Only the first pass
+	//  adds queries.
+	private static void readLines(File textFile, int n,
+			Map<String, Query> queries, boolean firstPass) throws IOException {
+
+		Map<String, Integer> seen = new HashMap<String, Integer>();
+		for (Query q : queries.values()) {
+			q.idScores = new double[n - q.size];
+			q.more = false;
+		}
+
+		BufferedReader input = null;
+		try {
+			input = new BufferedReader(new FileReader(textFile));
+			String line = null;
+
+			while ((line = input.readLine()) != null) {
+				int end = line.indexOf(' ');
+				if (end < 0)
+					continue;
+				String qid = line.substring(0, end);
+
+				Query q = queries.get(qid);
+				if (q == null) {
+					if (!firstPass)
+						continue;
+					q = new Query();
+					q.ranking.docids = new int[n];
+					q.ranking.scores = new double[n];
+					q.idScores = new double[n];
+					queries.put(qid, q);
+				}
+
+				Integer count = seen.get(qid);
+				int lineNumber = (count == null) ? 0 : count;
+				seen.put(qid, lineNumber + 1);
+				if (lineNumber < q.linesRead) {
+					continue;
+				} else if (q.size + q.ids.size() >= n) {
+					q.more = true;
+					continue;
+				}
+
+				String[] strs = line.split(" ");
+				q.idScores[q.ids.size()] = Double.parseDouble(strs[4]);
+				q.ids.add(strs[2]);
+				q.linesRead = lineNumber + 1;
+			}
+		} finally {
+			if (input != null)
+				input.close();
+		}
+	}
+
+	private static Map<String, Ranking> readBinary(File binaryFile, File textFile, int n) {
+		if (!binaryFile.exists() || binaryFile.lastModified() < textFile.lastModified())
+			return null;
+
+		DataInputStream input = null;
+		try {
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(binaryFile)));
+
+			if (input.readInt() != MAGIC || input.readInt() != VERSION
+					|| input.readLong() != textFile.length()
+					|| input.readLong() != textFile.lastModified()
+					|| !input.readUTF().equals(Idx.getIndexVersion())
+					|| input.readInt() < n)
+				return null;
+
+			Map<String, Ranking> result = new LinkedHashMap<String, Ranking>();
+			int numOfQueries = input.readInt();
+			for (int q = 0; q < numOfQueries; q++) {
+				String qid = input.readUTF();
+				int size = input.readInt();
+				Ranking r = new Ranking();
+				r.docids = new int[Math.min(n, size)];
+				r.scores = new double[r.docids.length];
+				for (int i = 0; i < size; i++) {
+					int docid = input.readInt();
+					double score = input.readDouble();
+					if (i < r.docids.length) {
+						r.docids[i] = docid;
+						r.scores[i] = score;
+					}
+				}
+				result.put(qid, r);
+			}
+			return result;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		} finally {
+			try {
+				if (input != null)
+					input.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	//the cache is an optimization, so failing to write it isn't an error
+	private static void writeBinary(File binaryFile, File textFile, int n,
+			Map<String, Ranking> rankings) {
+
+		DataOutputStream output = null;
+		try {
+			output = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(binaryFile)));
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeLong(textFile.length());
+			output.writeLong(textFile.lastModified());
+			output.writeUTF(Idx.getIndexVersion());
+			output.writeInt(n);
+			output.writeInt(rankings.size());
+			for (Map.Entry<String, Ranking> entry : rankings.entrySet()) {
+				Ranking r = entry.getValue();
+				output.writeUTF(entry.getKey());
+				output.writeInt(r.docids.length);
+				for (int i = 0; i < r.docids.length; i++) {
+					output.writeInt(r.docids[i]);
+					output.writeDouble(r.scores[i]);
+				}
+			}
+			output.close();
+		} catch (IOException e) {
+			//  Remove a partial file; the text file is read next time.
+			try {
+				if (output != null)
+					output.close();
+			} catch (IOException e2) {
+			}
+			binaryFile.delete();
+		}
+	}
+}
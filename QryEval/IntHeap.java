@@ -0,0 +1,123 @@
+import java.util.Arrays;
+
+/**
+ *  A binary min-heap of (id, key) pairs stored in primitive arrays.
+ *  Query operators use it for k-way merges of their arguments: the id is
+ *  the index of an argument, and the key is the argument's current docid
+ *  or location.  Pairs with the same key are ordered by id, so merges are
+ *  deterministic.
+ */
+public class IntHeap {
+
+	private int[] keys;
+	private int[] ids;
+	private int size = 0;
+
+	/**
+	 *  @param capacity The expected number of pairs; the heap grows if needed.
+	 */
+	public IntHeap(int capacity) {
+		this.keys = new int[Math.max(1, capacity)];
+		this.ids = new int[Math.max(1, capacity)];
+	}
+
+	/**
+	 *  Add a pair to the heap.
+	 *  @param id The id, usually the index of a query argument.
+	 *  @param key The key, usually a docid or location.
+	 */
+	public void add(int id, int key) {
+		if(this.size == this.keys.length) {
+			this.keys = Arrays.copyOf(this.keys, 2 * this.size);
+			this.ids = Arrays.copyOf(this.ids, 2 * this.size);
+		}
+		this.keys[this.size] = key;
+		this.ids[this.size] = id;
+		this.siftUp(this.size++);
+	}
+
+	/**
+	 *  Remove every pair from the heap.
+	 */
+	public void clear() {
+		this.size = 0;
+	}
+
+	/**
+	 *  @return The id of the pair with the smallest key.
+	 */
+	public int minId() {
+		return this.ids[0];
+	}
+
+	/**
+	 *  @return The smallest key in the heap.
+	 */
+	public int minKey() {
+		return this.keys[0];
+	}
+
+	/**
+	 *  Remove the pair with the smallest key.
+	 */
+	public void poll() {
+		this.size--;
+		if(this.size > 0) {
+			this.keys[0] = this.keys[this.size];
+			this.ids[0] = this.ids[this.size];
+			this.siftDown(0);
+		}
+	}
+
+	/**
+	 *  Change the key of the pair with the smallest key, for example after
+	 *  its argument is advanced.  This is cheaper than poll and add.
+	 *  @param key The new key, which must not be smaller than the old key.
+	 */
+	public void replaceMinKey(int key) {
+		this.keys[0] = key;
+		this.siftDown(0);
+	}
+
+	/**
+	 *  @return The number of pairs in the heap.
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	//compare two heap slots by key, then by id
+	private boolean less(int a, int b) {
+		return (this.keys[a] < this.keys[b]) ||
+				(this.keys[a] == this.keys[b] && this.ids[a] < this.ids[b]);
+	}
+
+	private void swap(int a, int b) {
+		int key = this.keys[a];
+		int id = this.ids[a];
+		this.keys[a] = this.keys[b];
+		this.ids[a] = this.ids[b];
+		this.keys[b] = key;
+		this.ids[b] = id;
+	}
+
+	private void siftUp(int i) {
+		while(i > 0) {
+			int parent = (i - 1) >>> 1;
+			if(! this.less(i, parent)) break;
+			this.swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while(true) {
+			int child = 2 * i + 1;
+			if(child >= this.size) break;
+			if(child + 1 < this.size && this.less(child + 1, child)) child++;
+			if(! this.less(child, i)) break;
+			this.swap(i, child);
+			i = child;
+		}
+	}
+}
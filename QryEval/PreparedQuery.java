@@ -0,0 +1,82 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ *  A query that has been parsed and optimized once.  The optimized tree is
+ *  kept as an immutable template that is never initialized; each
+ *  evaluation gets its own copy with fresh iterator state, so the same
+ *  query can be evaluated repeatedly, e.g. by several retrieval models or
+ *  by a parameter sweep, without parsing and stemming it again.
+ *  <p>
+ *  Parsing only depends on the model's default query operator, so
+ *  recently prepared queries are shared between models that have the
+ *  same default operator.
+ *  </p>
+ */
+public class PreparedQuery {
+
+	//  --------------- Constants and variables ---------------------
+
+	private static final int CACHE_SIZE = 256;
+
+	private static final Map<String, PreparedQuery> CACHE =
+			new LinkedHashMap<String, PreparedQuery>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				protected boolean removeEldestEntry(Map.Entry<String, PreparedQuery> eldest) {
+					return this.size() > CACHE_SIZE;
+				}
+			};
+
+	private final Qry template;
+	private final String display;
+
+	//  --------------- Methods ---------------------------------------
+
+	private PreparedQuery(Qry template) {
+		this.template = template;
+		this.display = String.valueOf(template);
+	}
+
+	/**
+	 *  Parse and optimize a query, or reuse a recently prepared copy.
+	 *  @param qString A string that contains a query.
+	 *  @param model The retrieval model, which supplies the default
+	 *  query operator.
+	 *  @return The prepared query.
+	 *  @throws IOException Error accessing the Lucene index.
+	 */
+	public static PreparedQuery prepare(String qString, RetrievalModel model)
+			throws IOException {
+		String key = model.defaultQrySopName() + "(" + qString + ")";
+
+		synchronized (CACHE) {
+			PreparedQuery p = CACHE.get(key);
+			if (p != null)
+				return p;
+		}
+
+		PreparedQuery p = new PreparedQuery(
+				QryEval.optimizeQuery(QryEval.parseQuery(qString, model)));
+
+		synchronized (CACHE) {
+			CACHE.put(key, p);
+		}
+		return p;
+	}
+
+	/**
+	 *  Get a query tree that is ready to be initialized and evaluated.
+	 *  @return A fresh copy of the template, or null if the query is empty.
+	 */
+	public Qry instantiate() {
+		return (this.template == null) ? null : this.template.copy();
+	}
+
+	/**
+	 *  @return The string version of the optimized query.
+	 */
+	public String toString() {
+		return this.display;
+	}
+}
@@ -97,6 +97,23 @@ public abstract class Qry {
 	 */
 	private int docIteratorMatchCache = Qry.INVALID_DOCID;
 
+	/**
+	 *  docIteratorHasMatchMin keeps the arguments in a heap ordered by
+	 *  their current docid, so that finding the next match and the
+	 *  arguments that match it costs O(log n) per argument instead of a
+	 *  scan over every argument.  Arguments that match the cached docid
+	 *  are removed from the heap and listed in matchedArgs.  Arguments
+	 *  that have been advanced but not positioned again with
+	 *  docIteratorHasMatch are listed in pendingArgs.
+	 */
+	private IntHeap argHeap = null;
+	private int[] matchedArgs;
+	private int numOfMatchedArgs = 0;
+	private boolean[] argMatched;
+	private int argHeapMatch = Qry.INVALID_DOCID;
+	private int[] pendingArgs;
+	private int numOfPendingArgs = 0;
+
 	private boolean matchStored = false;	// Operators can cache matches
 	private int matchingDocid;
 	
@@ -146,6 +163,23 @@ public abstract class Qry {
 			}
 		}
 
+		//  SDM operators read the term inverted lists themselves, so their
+		//  arguments are terms in the same field, without SCORE operators.
+
+		if (this instanceof QrySopSdm) {
+			if (! (q instanceof QryIopTerm)) {
+				throw new IllegalArgumentException
+				("The arguments to a SDM operator must be terms.");
+			} else if ((this.args.size () > 0) &&
+					(! this.getArg (0).getField ().equals (((QryIop) q).getField ()))) {
+				throw new IllegalArgumentException
+				("Arguments to SDM operators must be in the same field.");
+			} else {
+				this.args.add(q);
+				return;
+			}
+		}
+
 		//  Check whether it is necessary to insert an implied SCORE
 		//  operator between a QrySop operator and a QryIop argument.
 
@@ -197,8 +231,12 @@ public abstract class Qry {
 	 */
 	public void docIteratorAdvancePast (int docid) {
 
-		for (Qry q_i: this.args) {
-			q_i.docIteratorAdvancePast (docid);
+		if (this.argHeap == null) {
+			for (Qry q_i: this.args) {
+				q_i.docIteratorAdvancePast (docid);
+			}
+		} else {
+			this.docIteratorAdvanceArgHeap (docid, true);
 		}
 
 		this.docIteratorClearMatchCache ();
@@ -211,13 +249,59 @@ public abstract class Qry {
 	 */
 	public void docIteratorAdvanceTo (int docid) {
 
-		for (Qry q_i: this.args) {
-			q_i.docIteratorAdvanceTo (docid);
+		if (this.argHeap == null) {
+			for (Qry q_i: this.args) {
+				q_i.docIteratorAdvanceTo (docid);
+			}
+		} else {
+			this.docIteratorAdvanceArgHeap (docid, false);
 		}
 
 		this.docIteratorClearMatchCache ();
 	}
 
+	/**
+	 *  Advance the arguments kept in the argument heap.  Only the arguments
+	 *  whose docid is too small, and the arguments whose position is not
+	 *  known, are advanced; the others keep their matches and scores.
+	 *  @param docid An internal document id.
+	 *  @param past If true, advance beyond docid, otherwise to docid.
+	 */
+	private void docIteratorAdvanceArgHeap (int docid, boolean past) {
+
+		for (int i=0; i<this.numOfPendingArgs; i++) {
+			this.docIteratorAdvanceArg (this.pendingArgs[i], docid, past);
+		}
+
+		if ((this.numOfMatchedArgs > 0) &&
+				((this.argHeapMatch < docid) || (past && this.argHeapMatch == docid))) {
+			for (int i=0; i<this.numOfMatchedArgs; i++) {
+				int arg = this.matchedArgs[i];
+				this.argMatched[arg] = false;
+				this.docIteratorAdvanceArg (arg, docid, past);
+				this.pendingArgs[this.numOfPendingArgs++] = arg;
+			}
+			this.numOfMatchedArgs = 0;
+		}
+
+		while ((this.argHeap.size () > 0) &&
+				((this.argHeap.minKey () < docid) ||
+						(past && this.argHeap.minKey () == docid))) {
+			int arg = this.argHeap.minId ();
+			this.argHeap.poll ();
+			this.docIteratorAdvanceArg (arg, docid, past);
+			this.pendingArgs[this.numOfPendingArgs++] = arg;
+		}
+	}
+
+	private void docIteratorAdvanceArg (int i, int docid, boolean past) {
+		if (past) {
+			this.args.get (i).docIteratorAdvancePast (docid);
+		} else {
+			this.args.get (i).docIteratorAdvanceTo (docid);
+		}
+	}
+
 	/**
 	 *  Clear the docIterator's matching docid cache.  The cache should
 	 *  be cleared whenever a docIterator is advanced.
@@ -334,27 +418,104 @@ public abstract class Qry {
 	 */
 	protected boolean docIteratorHasMatchMin (RetrievalModel r) {
 
-		int minDocid = Qry.INVALID_DOCID;
+		int numOfArgs = this.args.size ();
 
-		for (int i=0; i<this.args.size(); i++) {
-			Qry q_i = this.args.get(i);
+		if (this.argHeap == null) {
+			this.argHeap = new IntHeap (numOfArgs);
+			this.matchedArgs = new int[numOfArgs];
+			this.argMatched = new boolean[numOfArgs];
+			this.pendingArgs = new int[numOfArgs];
+			for (int i=0; i<numOfArgs; i++) {
+				this.pendingArgs[i] = i;
+			}
+			this.numOfPendingArgs = numOfArgs;
+			this.numOfMatchedArgs = 0;
+		}
 
-			if (q_i.docIteratorHasMatch (r)) {
-				int q_iDocid = q_i.docIteratorGetMatch ();
+		// Arguments that were advanced find their next match and return
+		// to the heap.
 
-				if ((minDocid > q_iDocid) ||
-						(minDocid == Qry.INVALID_DOCID)) {
-					minDocid = q_iDocid;
-				}
+		for (int i=0; i<this.numOfPendingArgs; i++) {
+			Qry q_i = this.args.get (this.pendingArgs[i]);
+
+			if (q_i.docIteratorHasMatch (r)) {
+				this.argHeap.add (this.pendingArgs[i], q_i.docIteratorGetMatch ());
 			}
 		}
 
-		if (minDocid != Qry.INVALID_DOCID) {
-			docIteratorSetMatchCache (minDocid);
+		this.numOfPendingArgs = 0;
+
+		// The arguments with the smallest docid are the matching arguments.
+		// If some still match, the operator wasn't advanced past them.
+
+		if ((this.numOfMatchedArgs > 0) &&
+				((this.argHeap.size () == 0) || (this.argHeap.minKey () > this.argHeapMatch))) {
+			docIteratorSetMatchCache (this.argHeapMatch);
 			return true;
-		} else {
+		}
+
+		while (this.numOfMatchedArgs > 0) {	// collect the matches again
+			int arg = this.matchedArgs[--this.numOfMatchedArgs];
+			this.argMatched[arg] = false;
+			this.argHeap.add (arg, this.argHeapMatch);
+		}
+
+		if (this.argHeap.size () == 0) {
 			return false;
 		}
+
+		this.argHeapMatch = this.argHeap.minKey ();
+
+		while ((this.argHeap.size () > 0) &&
+				(this.argHeap.minKey () == this.argHeapMatch)) {
+			int arg = this.argHeap.minId ();
+			this.argHeap.poll ();
+			this.argMatched[arg] = true;
+			this.matchedArgs[this.numOfMatchedArgs++] = arg;
+		}
+
+		docIteratorSetMatchCache (this.argHeapMatch);
+		return true;
+	}
+
+	/**
+	 *  After docIteratorHasMatchMin finds a match, get the number of
+	 *  query arguments that match the same docid.
+	 *  @return The number of matching query arguments.
+	 */
+	protected int docIteratorNumOfMatchedArgs () {
+		return this.numOfMatchedArgs;
+	}
+
+	/**
+	 *  After docIteratorHasMatchMin finds a match, get the index of the
+	 *  i'th query argument that matches the same docid.  Arguments are
+	 *  returned in the order of their indexes.
+	 *  @param i Between 0 and docIteratorNumOfMatchedArgs () - 1.
+	 *  @return The index of the query argument.
+	 */
+	protected int docIteratorMatchedArg (int i) {
+		return this.matchedArgs[i];
+	}
+
+	/**
+	 *  After docIteratorHasMatchMin finds a match, check whether the
+	 *  i'th query argument matches the same docid.
+	 *  @param i The index of the query argument.
+	 *  @return True if the query argument matches, otherwise false.
+	 */
+	protected boolean docIteratorArgMatches (int i) {
+		return this.argMatched[i];
+	}
+
+	/**
+	 *  Forget the argument heap of docIteratorHasMatchMin, for example
+	 *  when the query arguments are initialized again.
+	 */
+	protected void docIteratorResetArgHeap () {
+		this.argHeap = null;
+		this.numOfMatchedArgs = 0;
+		this.numOfPendingArgs = 0;
 	}
 
 	
@@ -393,6 +554,63 @@ public abstract class Qry {
 		return this.displayName;
 	}
 
+	/**
+	 *  Get a copy of the query tree with fresh iterator state.  The copy
+	 *  has the same operators, display names, weights and fields, but it
+	 *  has not been initialized, so a parsed and optimized tree can be
+	 *  kept as a template and copied for each evaluation.  The tree is
+	 *  already well-formed, so the arguments are copied directly instead
+	 *  of through appendArg.
+	 *  @return The copy.
+	 */
+	public Qry copy () {
+		Qry q = this.newOperator ();
+		q.displayName = this.displayName;
+		q.weight = this.weight;
+		for (int i=0; i<this.args.size(); i++)
+			q.args.add (this.args.get (i).copy ());
+		return q;
+	}
+
+	/**
+	 *  Create an empty operator of the same type, for copy.  Operators
+	 *  whose constructors need parameters override this.
+	 *  @return The new operator.
+	 */
+	protected Qry newOperator () {
+		try {
+			return this.getClass ().getDeclaredConstructor ().newInstance ();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException
+			("Can't copy the " + this.getClass ().getName () + " operator.", e);
+		}
+	}
+
+	/**
+	 *  Get the set of documents that the query operator matches as a
+	 *  compressed bitmap, for models that only need to know what
+	 *  matches.  This default implementation initializes the operator
+	 *  and collects its matches with the docIterator; operators that
+	 *  can combine the bitmaps of their arguments override it.
+	 *  @param r The retrieval model that determines what is a match
+	 *  @return The matching documents.
+	 *  @throws IOException Error accessing the Lucene index.
+	 */
+	public DocidBitmap getDocidBitmap (RetrievalModel r) throws IOException {
+		this.initialize (r);
+
+		int[] docids = new int[16];
+		int n = 0;
+
+		while (this.docIteratorHasMatch (r)) {
+			if (n == docids.length)
+				docids = Arrays.copyOf (docids, 2 * n);
+			docids[n] = this.docIteratorGetMatch ();
+			this.docIteratorAdvancePast (docids[n++]);
+		}
+		return DocidBitmap.fromSortedDocids (docids, n);
+	}
+
 	/**
 	 *  Initialize the query operator (and its arguments), including any
 	 *  internal iterators; this method must be called before iteration
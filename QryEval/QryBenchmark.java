@@ -0,0 +1,157 @@
+import java.io.IOException;
+import java.util.*;
+
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+
+/**
+ *  A simple benchmark for the disjunctive query operators (#OR, #SUM,
+ *  #WAND and #WSUM).  Queries are built from the terms with the highest
+ *  document frequency in a field, and the time to evaluate them is
+ *  reported for 2 to 200 query arguments.  Run it to see a simple usage
+ *  message.
+ */
+public class QryBenchmark {
+
+	static String usage =
+			"Usage:  java QryBenchmark -index INDEX_PATH\n\n" +
+			"where options include\n" +
+			"    -field FIELD\tthe field of the query terms (default body)\n" +
+			"    -reps N\t\tthe number of timed runs of each query (default 5)\n";
+
+	private static final int[] NUM_OF_ARGS = { 2, 5, 10, 20, 50, 100, 200 };
+
+	public static void main(String[] args) throws IOException {
+
+		String indexPath = null;
+		String field = "body";
+		int reps = 5;
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (args[i].equals("-index")) {
+				indexPath = args[i + 1];
+			} else if (args[i].equals("-field")) {
+				field = args[i + 1];
+			} else if (args[i].equals("-reps")) {
+				reps = Integer.parseInt(args[i + 1]);
+			} else {
+				System.err.println(usage);
+				System.exit(1);
+			}
+		}
+
+		if (indexPath == null) {
+			System.err.println(usage);
+			System.exit(1);
+		}
+
+		Idx.initialize(indexPath);
+		String[] terms = frequentTerms(field, NUM_OF_ARGS[NUM_OF_ARGS.length - 1]);
+
+		String[] operators = { "#or", "#sum", "#wand", "#wsum" };
+		RetrievalModel[] models = { new RetrievalModelRankedBoolean(),
+				new RetrievalModelBM25(1.2, 0.75, 0),
+				new RetrievalModelIndri(2500, 0.4),
+				new RetrievalModelIndri(2500, 0.4) };
+
+		System.out.println("operator\targs\tmatches\tinit ms\teval ms");
+
+		for (int op = 0; op < operators.length; op++) {
+			for (int n : NUM_OF_ARGS) {
+				if (n > terms.length) break;
+
+				long bestInit = Long.MAX_VALUE;
+				long bestEval = Long.MAX_VALUE;
+				int matches = 0;
+
+				//the first run warms up the JVM and is not counted
+				for (int rep = 0; rep <= reps; rep++) {
+					Qry q = buildQuery(operators[op], terms, n, field);
+
+					long start = System.nanoTime();
+					q.initialize(models[op]);
+					long initialized = System.nanoTime();
+
+					matches = 0;
+					while (q.docIteratorHasMatch(models[op])) {
+						int docid = q.docIteratorGetMatch();
+						((QrySop) q).getScore(models[op]);
+						q.docIteratorAdvancePast(docid);
+						matches++;
+					}
+					long evaluated = System.nanoTime();
+
+					if (rep > 0) {
+						bestInit = Math.min(bestInit, initialized - start);
+						bestEval = Math.min(bestEval, evaluated - initialized);
+					}
+				}
+
+				System.out.println(operators[op] + "\t" + n + "\t" + matches +
+						"\t" + (bestInit / 1000000.0) + "\t" + (bestEval / 1000000.0));
+			}
+		}
+	}
+
+	/**
+	 *  Build a query operator with n term arguments; weighted operators
+	 *  give every term the same weight.
+	 */
+	private static Qry buildQuery(String operator, String[] terms, int n, String field) {
+		Qry q = null;
+
+		if (operator.equals("#or")) {
+			q = new QrySopOr();
+		} else if (operator.equals("#sum")) {
+			q = new QrySopSum();
+		} else if (operator.equals("#wand")) {
+			q = new QrySopWand();
+		} else {
+			q = new QrySopWsum();
+		}
+		q.setDisplayName(operator);
+
+		for (int i = 0; i < n; i++) {
+			Qry termOp = new QryIopTerm(terms[i], field);
+			if (operator.equals("#wand") || operator.equals("#wsum"))
+				termOp.setWeight(1.0);
+			q.appendArg(termOp);
+		}
+		return q;
+	}
+
+	/**
+	 *  Get the terms of a field with the highest document frequency, in
+	 *  descending order of document frequency.
+	 */
+	private static String[] frequentTerms(String field, int num) throws IOException {
+		final Map<String, Integer> dfs = new HashMap<String, Integer>();
+		PriorityQueue<String> top = new PriorityQueue<String>(num + 1,
+				new Comparator<String>() {
+					public int compare(String a, String b) {
+						return dfs.get(a) - dfs.get(b);
+					}
+				});
+
+		Terms luceneTerms = MultiFields.getTerms(Idx.INDEXREADER, field);
+		if (luceneTerms == null) {
+			throw new IllegalArgumentException("Unknown field " + field);
+		}
+
+		TermsEnum ithTerm = luceneTerms.iterator(null);
+		while (ithTerm.next() != null) {
+			String term = ithTerm.term().utf8ToString();
+			dfs.put(term, ithTerm.docFreq());
+			top.add(term);
+			if (top.size() > num)
+				dfs.remove(top.poll());
+		}
+
+		String[] result = new String[top.size()];
+		for (int i = result.length - 1; i >= 0; i--) {
+			result[i] = top.poll();
+		}
+		return result;
+	}
+}
@@ -6,9 +6,6 @@
 import java.io.*;
 import java.util.*;
 
-import org.apache.lucene.analysis.Analyzer.TokenStreamComponents;
-import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.*;
 import org.apache.lucene.search.*;
@@ -56,6 +53,11 @@ public class QryEval {
 	private static final String[] TEXT_FIELDS = { "body", "title", "url",
 			"inlink" };
 
+	/**
+	 * The cache of query results, or null if results aren't cached.
+	 */
+	private static QryResultCache RESULT_CACHE = null;
+
 	// --------------- Methods ---------------------------------------
 
 	/**
@@ -92,24 +94,103 @@ public class QryEval {
 		ANALYZER.setStemmer(EnglishAnalyzerConfigurable.StemmerType.KSTEM);
 
 		Idx.initialize(parameters.get("indexPath"));
+		if (parameters.containsKey("forwardIndexPath"))
+			Idx.openForwardIndex(parameters.get("forwardIndexPath"));
+
+		// Term vectors are fetched by termVectors:threads workers (default
+		// one per processor), with at most termVectors:maxInFlight fetches
+		// queued or running (default 4 per worker).
+		if (parameters.containsKey("termVectors:threads")
+				|| parameters.containsKey("termVectors:maxInFlight")) {
+			int threads = Runtime.getRuntime().availableProcessors();
+			if (parameters.containsKey("termVectors:threads"))
+				threads = Integer.parseInt(parameters.get("termVectors:threads"));
+			int maxInFlight = 4 * threads;
+			if (parameters.containsKey("termVectors:maxInFlight"))
+				maxInFlight = Integer.parseInt(parameters
+						.get("termVectors:maxInFlight"));
+			TermVectorFetcher.initialize(threads, maxInFlight);
+		}
 		RetrievalModel model = initializeRetrievalModel(parameters);
 
+		Map<String, RetrievalModel> sweepModels = initializeSweepModels(
+				parameters, model);
+
+		// Results are cached if queryCache:size (the number of queries kept
+		// in memory) or queryCache:path (a directory for the disk tier) is set.
+		if (parameters.containsKey("queryCache:size")
+				|| parameters.containsKey("queryCache:path")) {
+			int size = 1000;
+			if (parameters.containsKey("queryCache:size"))
+				size = Integer.parseInt(parameters.get("queryCache:size"));
+			RESULT_CACHE = new QryResultCache(size,
+					parameters.get("queryCache:path"));
+		}
+
 		// Perform experiments.
+		Map<String, Map<String, int[]>> rankings = new LinkedHashMap<String, Map<String, int[]>>();
+
 		if (model instanceof RetrievalModelletor) {
 			processLetor(parameters.get("queryFilePath"),
 					parameters.get("trecEvalOutputPath"),
 					(RetrievalModelletor) model);
+			if (parameters.containsKey("trecEval:qrelsFile"))
+				rankings.put("all", TrecEval.readRun(parameters
+						.get("trecEvalOutputPath")));
+		} else if (sweepModels != null) {
+			rankings = processQueryFileSweep(parameters.get("queryFilePath"),
+					parameters.get("trecEvalOutputPath"), sweepModels);
 		} else {
-			processQueryFile(parameters.get("queryFilePath"),
-					parameters.get("trecEvalOutputPath"), model);
+			rankings.put("all", processQueryFile(
+					parameters.get("queryFilePath"),
+					parameters.get("trecEvalOutputPath"), model));
 		}
 
+		// Evaluate the results if relevance judgments are available.
+		if (parameters.containsKey("trecEval:qrelsFile"))
+			printEvaluation(parameters, rankings);
+
+		if (RESULT_CACHE != null)
+			System.out.println("Query cache:  " + RESULT_CACHE);
+
 		// Clean up.
 
 		timer.stop();
 		System.out.println("Time:  " + timer);
 	}
 
+	/**
+	 * Evaluate the rankings of each run with the qrels file in
+	 * "trecEval:qrelsFile" and print the mean measures. The optional
+	 * "trecEval:ndcgCutoff" parameter is the rank cutoff of nDCG (default 20),
+	 * and the optional "trecEval:baselineRun" parameter is a .teIn file to
+	 * count per-query wins and losses against.
+	 * 
+	 * @param rankings
+	 *            The names of the runs and their rankings of each query.
+	 * @throws IOException
+	 *             Error accessing the Lucene index.
+	 */
+	private static void printEvaluation(Map<String, String> parameters,
+			Map<String, Map<String, int[]>> rankings) throws IOException {
+
+		int ndcgCutoff = 20;
+		if (parameters.containsKey("trecEval:ndcgCutoff"))
+			ndcgCutoff = Integer.parseInt(parameters.get("trecEval:ndcgCutoff"));
+
+		TrecEval trecEval = new TrecEval(parameters.get("trecEval:qrelsFile"),
+				ndcgCutoff);
+
+		Map<String, double[]> baseline = null;
+		if (parameters.containsKey("trecEval:baselineRun"))
+			baseline = trecEval.evaluate(TrecEval.readRun(parameters
+					.get("trecEval:baselineRun")));
+
+		for (Map.Entry<String, Map<String, int[]>> run : rankings.entrySet())
+			trecEval.printSummary(run.getKey(),
+					trecEval.evaluate(run.getValue()), baseline);
+	}
+
 	/**
 	 * Allocate the retrieval model and initialize it using parameters from the
 	 * parameter file.
@@ -155,6 +236,20 @@ public class QryEval {
 			} else {
 				model = new RetrievalModelIndri(mu, lambda);
 			}
+			// weights and window size of the #sdm operator are optional
+			RetrievalModelIndri indri = (RetrievalModelIndri) model;
+			if (parameters.containsKey("sdm:unigramWeight"))
+				indri.setSdmUnigramWeight(Double.parseDouble(parameters
+						.get("sdm:unigramWeight")));
+			if (parameters.containsKey("sdm:orderedWeight"))
+				indri.setSdmOrderedWeight(Double.parseDouble(parameters
+						.get("sdm:orderedWeight")));
+			if (parameters.containsKey("sdm:unorderedWeight"))
+				indri.setSdmUnorderedWeight(Double.parseDouble(parameters
+						.get("sdm:unorderedWeight")));
+			if (parameters.containsKey("sdm:windowSize"))
+				indri.setSdmWindowSize(Integer.parseInt(parameters
+						.get("sdm:windowSize")));
 		} else if (modelString.equals("letor")) {
 			String trainingQueryFile = parameters
 					.get("letor:trainingQueryFile");
@@ -188,6 +283,62 @@ public class QryEval {
 					svmRankClassifyPath, svmRankParamC, svmRankModelFile,
 					testingFeatureVectorsFile, testingDocumentScores, k_1, b,
 					k_3, mu, lambda);
+
+			// letor:featureExtractors adds features after the built-in
+			// ones, e.g. letor:featureExtractors=MyFeature,MyOtherFeature
+			RetrievalModelletor letor = (RetrievalModelletor) model;
+			if (parameters.containsKey("letor:featureExtractors")) {
+				for (String name : parameters.get("letor:featureExtractors")
+						.split(","))
+					letor.getFeatureRegistry().register(name.trim());
+			}
+
+			// letor:learner selects svm_rank_learn (the default if its path
+			// is given), or the in-process RankSVM, RankNet or LambdaMART
+			// trainers
+			if (parameters.containsKey("letor:learner"))
+				letor.setLearner(parameters.get("letor:learner"));
+			else if (svmRankLearnPath == null)
+				letor.setLearner("RankSVM");
+			letor.setThreads(Runtime.getRuntime().availableProcessors());
+			if (parameters.containsKey("letor:threads"))
+				letor.setThreads(Integer.parseInt(parameters
+						.get("letor:threads")));
+			if (parameters.containsKey("letor:numTrees"))
+				letor.setNumTrees(Integer.parseInt(parameters
+						.get("letor:numTrees")));
+			if (parameters.containsKey("letor:numLeaves"))
+				letor.setNumLeaves(Integer.parseInt(parameters
+						.get("letor:numLeaves")));
+			if (parameters.containsKey("letor:learningRate"))
+				letor.setLearningRate(Double.parseDouble(parameters
+						.get("letor:learningRate")));
+			if (parameters.containsKey("letor:minLeafSupport"))
+				letor.setMinLeafSupport(Integer.parseInt(parameters
+						.get("letor:minLeafSupport")));
+			if (parameters.containsKey("letor:numThresholds"))
+				letor.setNumThresholds(Integer.parseInt(parameters
+						.get("letor:numThresholds")));
+
+			// letor:featureFileFormat=binary writes the feature vector files
+			// as binary FeatureFiles, which svm_rank_learn can't read
+			if (parameters.containsKey("letor:featureFileFormat")) {
+				String format = parameters.get("letor:featureFileFormat");
+				if (!format.equals("text") && !format.equals("binary"))
+					throw new IllegalArgumentException(
+							"Unknown letor:featureFileFormat " + format);
+				if (format.equals("binary")
+						&& letor.getLearner().equals("svm_rank_learn"))
+					throw new IllegalArgumentException(
+							"svm_rank_learn needs letor:featureFileFormat=text");
+				letor.setFeatureFileFormat(format);
+			}
+
+			// letor:featureCachePath is a directory that keeps the raw
+			// feature values across runs
+			if (parameters.containsKey("letor:featureCachePath"))
+				letor.setFeatureCache(new FeatureCache(parameters
+						.get("letor:featureCachePath")));
 		} else {
 			throw new IllegalArgumentException("Unknown retrieval model "
 					+ parameters.get("retrievalAlgorithm"));
@@ -196,6 +347,77 @@ public class QryEval {
 		return model;
 	}
 
+	/**
+	 * Create the grid of retrieval models for a parameter sweep. A sweep is
+	 * requested with comma-separated lists of values, e.g.
+	 * "sweep:BM25:k_1=0.8,1.2,1.6" or "sweep:Indri:mu=500,1000,2500";
+	 * parameters without a list keep their usual value. Every combination of
+	 * values is a setting, named by its parameter values.
+	 * 
+	 * @return The models of each setting, or null if no sweep is requested.
+	 */
+	private static Map<String, RetrievalModel> initializeSweepModels(
+			Map<String, String> parameters, RetrievalModel model) {
+
+		boolean sweep = false;
+		for (String key : parameters.keySet())
+			sweep = sweep || key.startsWith("sweep:");
+		if (!sweep)
+			return null;
+
+		Map<String, RetrievalModel> models = new LinkedHashMap<String, RetrievalModel>();
+
+		if (model instanceof RetrievalModelBM25) {
+			RetrievalModelBM25 bm25 = (RetrievalModelBM25) model;
+			for (double k_1 : parseSweepValues(parameters, "sweep:BM25:k_1",
+					bm25.getK_1()))
+				for (double b : parseSweepValues(parameters, "sweep:BM25:b",
+						bm25.getB()))
+					for (double k_3 : parseSweepValues(parameters,
+							"sweep:BM25:k_3", bm25.getK_3()))
+						models.put("k_1=" + k_1 + "_b=" + b + "_k_3=" + k_3,
+								new RetrievalModelBM25(k_1, b, k_3));
+		} else if (model instanceof RetrievalModelIndri
+				&& !((RetrievalModelIndri) model).isFb()) {
+			RetrievalModelIndri indri = (RetrievalModelIndri) model;
+			for (double mu : parseSweepValues(parameters, "sweep:Indri:mu",
+					indri.getMu()))
+				for (double lambda : parseSweepValues(parameters,
+						"sweep:Indri:lambda", indri.getLambda())) {
+					RetrievalModelIndri setting = new RetrievalModelIndri(mu,
+							lambda);
+					setting.setSdmUnigramWeight(indri.getSdmUnigramWeight());
+					setting.setSdmOrderedWeight(indri.getSdmOrderedWeight());
+					setting.setSdmUnorderedWeight(indri.getSdmUnorderedWeight());
+					setting.setSdmWindowSize(indri.getSdmWindowSize());
+					models.put("mu=" + mu + "_lambda=" + lambda, setting);
+				}
+		} else {
+			throw new IllegalArgumentException(
+					"Parameter sweeps need the BM25 or Indri model without query expansion.");
+		}
+
+		return models;
+	}
+
+	/**
+	 * Parse a comma-separated list of sweep values.
+	 * 
+	 * @return The values, or just the default value if the key is missing.
+	 */
+	private static double[] parseSweepValues(Map<String, String> parameters,
+			String key, double defaultValue) {
+
+		if (!parameters.containsKey(key))
+			return new double[] { defaultValue };
+
+		String[] strs = parameters.get(key).split(",");
+		double[] values = new double[strs.length];
+		for (int i = 0; i < strs.length; i++)
+			values[i] = Double.parseDouble(strs[i].trim());
+		return values;
+	}
+
 	/**
 	 * Optimize the query by removing degenerate nodes produced during query
 	 * parsing, for example '#NEAR/1 (of the)' which turns into '#NEAR/1 ()'
@@ -235,10 +457,13 @@ public class QryEval {
 			return null;
 		}
 
-		// Only SCORE operators can have a single argument. Other
-		// query operators that have just one argument are deleted.
+		// Only SCORE and SDM operators can have a single argument. Other
+		// query operators that have just one argument are deleted. An SDM
+		// operator's arguments are terms without SCORE operators, so a
+		// one-term #SDM is kept, and scores the term's unigram component.
 
-		if ((q.args.size() == 1) && (!(q instanceof QrySopScore))) {
+		if ((q.args.size() == 1) && !(q instanceof QrySopScore)
+				&& !(q instanceof QrySopSdm)) {
 			if (q.getWeight() < 0)
 				q = q.args.get(0);
 			else { // if the parent operator has weight associated with it
@@ -273,8 +498,8 @@ public class QryEval {
 
 		// Simple query tokenization. Terms like "near-death" are handled later.
 
-		StringTokenizer tokens = new StringTokenizer(qString, "\t\n\r ,()",
-				true);
+		List<String> tokens = lexQuery(qString);
+		int tokenIndex = 0;
 		String token = null;
 
 		// This is a simple, stack-based parser. These variables record
@@ -289,13 +514,11 @@ public class QryEval {
 		// on the top of the opStack is also stored in currentOp to
 		// make the code more readable.
 
-		while (tokens.hasMoreTokens()) {
+		while (tokenIndex < tokens.size()) {
 
-			token = tokens.nextToken();
+			token = tokens.get(tokenIndex++);
 
-			if (token.matches("[ ,(\t\n\r]")) {
-				continue;
-			} else if (token.equals(")")) { // Finish current query op.
+			if (token.equals(")")) { // Finish current query op.
 				// If the current query operator is not an argument to another
 				// query operator (i.e., the opStack is empty when the current
 				// query operator is removed), we're done (assuming correct
@@ -366,6 +589,11 @@ public class QryEval {
 				currentOp.setDisplayName(token);
 				opStack.push(currentOp);
 				weightExpected = false;
+			} else if (token.equalsIgnoreCase("#sdm")) {
+				currentOp = new QrySopSdm();
+				currentOp.setDisplayName(token);
+				opStack.push(currentOp);
+				weightExpected = false;
 			} else if (token.equalsIgnoreCase("#wand")) {
 				currentOp = new QrySopWand();
 				currentOp.setDisplayName(token);
@@ -427,7 +655,7 @@ public class QryEval {
 		// A broken structured query can leave unprocessed tokens on the
 		// opStack,
 
-		if (tokens.hasMoreTokens()) {
+		if (tokenIndex < tokens.size()) {
 			throw new IllegalArgumentException(
 					"Error:  Query syntax is incorrect.  " + qString);
 		}
@@ -435,6 +663,41 @@ public class QryEval {
 		return currentOp;
 	}
 
+	/**
+	 * Split a query into the tokens that the parser uses: operators, terms,
+	 * weights, and ")". Whitespace, commas, and "(" only separate tokens, so
+	 * they are dropped here instead of being returned and skipped.
+	 * 
+	 * @param qString
+	 *            A string containing a query.
+	 * @return The tokens, in order.
+	 */
+	static List<String> lexQuery(String qString) {
+		List<String> tokens = new ArrayList<String>();
+		int length = qString.length();
+		int start = -1;
+
+		for (int i = 0; i < length; i++) {
+			char c = qString.charAt(i);
+
+			if (c == ' ' || c == ',' || c == '(' || c == ')' || c == '\t'
+					|| c == '\n' || c == '\r') {
+				if (start >= 0) {
+					tokens.add(qString.substring(start, i));
+					start = -1;
+				}
+				if (c == ')')
+					tokens.add(")");
+			} else if (start < 0) {
+				start = i;
+			}
+		}
+
+		if (start >= 0)
+			tokens.add(qString.substring(start));
+		return tokens;
+	}
+
 	/**
 	 * Print a message indicating the amount of memory used. The caller can
 	 * indicate whether garbage collection should be performed, which slows the
@@ -470,19 +733,57 @@ public class QryEval {
 	 */
 	static ScoreList processQuery(String qString, RetrievalModel model)
 			throws IOException {
+		return processQuery(PreparedQuery.prepare(qString, model), model);
+	}
+
+	/**
+	 * Process one prepared query.
+	 * 
+	 * @param prepared
+	 *            A query that was prepared for a model with the same default
+	 *            query operator.
+	 * @param model
+	 *            The retrieval model determines how matching and scoring is
+	 *            done.
+	 * @return Search results
+	 * @throws IOException
+	 *             Error accessing the index
+	 */
+	static ScoreList processQuery(PreparedQuery prepared, RetrievalModel model)
+			throws IOException {
 
-		Qry q = parseQuery(qString, model);
-		q = optimizeQuery(q);
+		Qry q = prepared.instantiate();
 
 		// Show the query that is evaluated
 
-		System.out.println("    --> " + q);
+		System.out.println("    --> " + prepared);
 
 		if (q != null) {
 
+			// A cached result only has the top QryResultCache.DEPTH
+			// documents, which is all that callers use.
+
+			String cacheKey = null;
+			if (RESULT_CACHE != null) {
+				cacheKey = prepared + " " + model;
+				ScoreList cached = RESULT_CACHE.get(cacheKey);
+				if (cached != null)
+					return cached;
+			}
+
 			ScoreList r = new ScoreList();
 
-			if (q.args.size() > 0) { // Ignore empty queries
+			if (q.args.size() > 0
+					&& model instanceof RetrievalModelUnrankedBoolean) {
+
+				// Every match has the same score, so the query is
+				// evaluated with bitmaps instead of docIterators.
+
+				int[] docids = q.getDocidBitmap(model).toArray();
+				for (int docid : docids) {
+					r.add(docid, 1.0);
+				}
+			} else if (q.args.size() > 0) { // Ignore empty queries
 
 				q.initialize(model);
 
@@ -494,22 +795,200 @@ public class QryEval {
 				}
 			}
 
+			if (RESULT_CACHE != null) {
+				r.sort();
+				RESULT_CACHE.put(cacheKey, r);
+			}
+
 			return r;
 		} else
 			return null;
 	}
 
+	/**
+	 * Process one query, keeping only its best k documents. This is used for
+	 * the first pass of relevance feedback, which only needs the top fbDocs
+	 * documents, so the full ScoreList is never built or sorted.
+	 * 
+	 * @param prepared
+	 *            A query that was prepared for the model.
+	 * @param model
+	 *            The retrieval model determines how matching and scoring is
+	 *            done.
+	 * @param k
+	 *            The number of documents to keep.
+	 * @return The sorted top k documents, or null if the query is empty.
+	 * @throws IOException
+	 *             Error accessing the index
+	 */
+	static ScoreList processQueryTopK(PreparedQuery prepared,
+			RetrievalModel model, int k) throws IOException {
+
+		Qry q = prepared.instantiate();
+
+		// Show the query that is evaluated
+
+		System.out.println("    --> " + prepared);
+
+		if (q == null)
+			return null;
+
+		ScoreHeap heap = new ScoreHeap(k);
+
+		if (q.args.size() > 0) { // Ignore empty queries
+
+			q.initialize(model);
+
+			while (q.docIteratorHasMatch(model)) {
+				int docid = q.docIteratorGetMatch();
+				heap.add(docid, ((QrySop) q).getScore(model));
+				q.docIteratorAdvancePast(docid);
+			}
+		}
+
+		ScoreList r = heap.getScoreList();
+		r.sort();
+		return r;
+	}
+
+	/**
+	 * Process one query for every setting of a parameter sweep. The query is
+	 * parsed and its postings are walked once; each matching document is
+	 * scored for every setting, and each setting keeps its own top 100.
+	 * 
+	 * @param qString
+	 *            A string that contains a query.
+	 * @param models
+	 *            The retrieval models of the settings, which must differ
+	 *            only in their parameters.
+	 * @return The unsorted results of each setting.
+	 * @throws IOException
+	 *             Error accessing the Lucene index
+	 */
+	static ScoreList[] processQuerySweep(String qString, RetrievalModel[] models)
+			throws IOException {
+
+		Qry q = PreparedQuery.prepare(qString, models[0]).instantiate();
+
+		// Show the query that is evaluated
+
+		System.out.println("    --> " + q);
+
+		if (q == null)
+			return null;
+
+		ScoreHeap[] heaps = new ScoreHeap[models.length];
+		for (int k = 0; k < models.length; k++)
+			heaps[k] = new ScoreHeap(100);
+
+		if (q.args.size() > 0) { // Ignore empty queries
+
+			// What matches doesn't depend on the parameters, so the first
+			// setting drives the iteration and the others rescore each match.
+
+			q.initialize(models[0]);
+
+			while (q.docIteratorHasMatch(models[0])) {
+				int docid = q.docIteratorGetMatch();
+				heaps[0].add(docid, ((QrySop) q).getScore(models[0]));
+				for (int k = 1; k < models.length; k++)
+					heaps[k].add(docid, ((QrySop) q).getScoreUncached(models[k]));
+				q.docIteratorAdvancePast(docid);
+			}
+		}
+
+		ScoreList[] results = new ScoreList[models.length];
+		for (int k = 0; k < models.length; k++)
+			results[k] = heaps[k].getScoreList();
+		return results;
+	}
+
+	/**
+	 * Process the query file for every setting of a parameter sweep. The
+	 * results of each setting are written to the output file name followed by
+	 * the setting's name.
+	 * 
+	 * @param queryFilePath
+	 * @param models
+	 *            The settings' names and retrieval models.
+	 * @return The top 100 internal docids of each query for each setting.
+	 * @throws IOException
+	 *             Error accessing the Lucene index.
+	 */
+	static Map<String, Map<String, int[]>> processQueryFileSweep(
+			String queryFilePath, String outputFile,
+			Map<String, RetrievalModel> models) throws IOException {
+
+		Map<String, Map<String, int[]>> rankings = new LinkedHashMap<String, Map<String, int[]>>();
+		BufferedReader input = null;
+		String[] names = models.keySet().toArray(new String[models.size()]);
+		RetrievalModel[] grid = models.values().toArray(
+				new RetrievalModel[models.size()]);
+		PrintWriter[] writers = new PrintWriter[grid.length];
+
+		try {
+			String qLine = null;
+
+			input = new BufferedReader(new FileReader(queryFilePath));
+			for (int k = 0; k < grid.length; k++) {
+				writers[k] = new PrintWriter(outputFile + "." + names[k],
+						"UTF-8");
+				rankings.put(names[k], new LinkedHashMap<String, int[]>());
+			}
+
+			// Each pass of the loop processes one query.
+
+			while ((qLine = input.readLine()) != null) {
+				int d = qLine.indexOf(':');
+
+				if (d < 0) {
+					throw new IllegalArgumentException(
+							"Syntax error:  Missing ':' in query line.");
+				}
+
+				printMemoryUsage(false);
+
+				String qid = qLine.substring(0, d);
+				String query = qLine.substring(d + 1);
+
+				System.out.println("Query " + qLine);
+
+				ScoreList[] results = processQuerySweep(query, grid);
+
+				if (results != null) {
+					for (int k = 0; k < grid.length; k++) {
+						results[k].sort();
+						printResultsToFile(qid, results[k], writers[k]);
+						rankings.get(names[k]).put(qid,
+								TrecEval.ranking(results[k], 100));
+					}
+				}
+			}
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		} finally {
+			if (input != null)
+				input.close();
+			for (PrintWriter writer : writers)
+				if (writer != null)
+					writer.close();
+		}
+		return rankings;
+	}
+
 	/**
 	 * Process the query file.
 	 * 
 	 * @param queryFilePath
 	 * @param model
+	 * @return The top 100 internal docids of each query.
 	 * @throws IOException
 	 *             Error accessing the Lucene index.
 	 */
-	static void processQueryFile(String queryFilePath, String outputFile,
-			RetrievalModel model) throws IOException {
+	static Map<String, int[]> processQueryFile(String queryFilePath,
+			String outputFile, RetrievalModel model) throws IOException {
 
+		Map<String, int[]> rankings = new LinkedHashMap<String, int[]>();
 		BufferedReader input = null;
 		PrintWriter writer = null;
 		boolean queryExpansionExpected = false;
@@ -554,45 +1033,57 @@ public class QryEval {
 
 				System.out.println("Query " + qLine);
 
-				// if query expansion should be performed
-				if (queryExpansionExpected) {
-					List<TermVector> termVectorList = null;
-					// no fbInitialRankingFile specified
-					if (termVectorListMap == null
-							|| termVectorListMap.size() == 0) {
-						ScoreList preRanking = processQuery(query, model);
-						if (preRanking != null)
-							preRanking.sort();
-
-						termVectorList = getTermVectorsFromScores(preRanking,
-								(RetrievalModelIndri) model);
-					} else {
-						termVectorList = termVectorListMap.get(qid);
-					}
+				ScoreList r = null;
 
-					HashSet<String> termSet = getTermSet(termVectorList);
-					// generate and print expanded query
-					String newQuery = generateExpandQuery(termVectorList,
-							termSet, query, (RetrievalModelIndri) model);
-					fbWriter.println(qid + ": " + newQuery);
-
-					// combine expanded new query and old query
-					double fbOrigWeight = ((RetrievalModelIndri) model)
-							.getFbOrigWeight();
-					query = "#wand ( " + Double.toString(fbOrigWeight)
-							+ " #and ( " + query + " ) "
-							+ Double.toString(1 - fbOrigWeight) + " "
-							+ newQuery + " )";
-				}
+				// Postings shared by the feedback pass are freed however
+				// the query ends.
 
-				ScoreList r = null;
+				try {
+					// if query expansion should be performed
+					if (queryExpansionExpected) {
+						List<TermVector> termVectorList = null;
+						// no fbInitialRankingFile specified
+						if (termVectorListMap == null
+								|| termVectorListMap.size() == 0) {
+
+							// The original query is evaluated again inside the
+							// expanded query, so keep its postings until then.
+
+							QryIopTerm.sharePostings(true);
+							ScoreList preRanking = processQueryTopK(
+									PreparedQuery.prepare(query, model), model,
+									((RetrievalModelIndri) model).getFbDocs());
+
+							termVectorList = getTermVectorsFromScores(preRanking,
+									(RetrievalModelIndri) model);
+						} else {
+							termVectorList = termVectorListMap.get(qid);
+						}
+
+						// generate and print expanded query
+						String newQuery = generateExpandQuery(termVectorList,
+								query, (RetrievalModelIndri) model);
+						fbWriter.println(qid + ": " + newQuery);
+
+						// combine expanded new query and old query
+						double fbOrigWeight = ((RetrievalModelIndri) model)
+								.getFbOrigWeight();
+						query = "#wand ( " + Double.toString(fbOrigWeight)
+								+ " #and ( " + query + " ) "
+								+ Double.toString(1 - fbOrigWeight) + " "
+								+ newQuery + " )";
+					}
 
-				r = processQuery(query, model);
+					r = processQuery(query, model);
+				} finally {
+					QryIopTerm.sharePostings(false);
+				}
 
 				if (r != null) {
 					r.sort();
 					// printResults(qid, r);
 					printResultsToFile(qid, r, writer);
+					rankings.put(qid, TrecEval.ranking(r, 100));
 				}
 			}
 		} catch (IOException ex) {
@@ -603,6 +1094,7 @@ public class QryEval {
 			if (fbWriter != null)
 				fbWriter.close();
 		}
+		return rankings;
 	}
 
 	/**
@@ -613,47 +1105,41 @@ public class QryEval {
 			String rankingFileName, RetrievalModelIndri model)
 			throws IOException {
 
+		// only the top fbDocs documents of each query are read
+		Map<String, InitialRankingFile.Ranking> rankings = InitialRankingFile
+				.load(rankingFileName, model.getFbDocs());
+
+		// the term vectors of every query are fetched as one batch
+		int size = 0;
+		for (InitialRankingFile.Ranking r : rankings.values())
+			size += r.docids.length;
+		int[] batch = new int[size];
+		int n = 0;
+		for (InitialRankingFile.Ranking r : rankings.values())
+			for (int docid : r.docids)
+				batch[n++] = docid;
+		TermVector[] termVectors = TermVectorFetcher.getInstance().fetch(
+				batch, "body");
+
+		// assign the indri score to each termvector, and add it to the list
+		// for its query
 		Map<String, List<TermVector>> result = new HashMap<String, List<TermVector>>();
-		BufferedReader input = null;
-
-		try {
-			input = new BufferedReader(new FileReader(rankingFileName));
-			String line = null;
-
-			while ((line = input.readLine()) != null) {
-				String[] strs = line.split(" ");
-
-				// make sure each list only contains the top fbDocs
-				if (result.containsKey(strs[0])
-						&& result.get(strs[0]).size() == model.getFbDocs())
-					continue;
-
-				List<TermVector> list = null;
-				if (result.containsKey(strs[0])) {
-					list = result.get(strs[0]);
-				} else {
-					list = new ArrayList<TermVector>();
-				}
-
-				/*
-				 * based on current docid, create a termvector and assign the
-				 * indri score, add it to the list for this query
-				 */
-				int docid = Idx.getInternalDocid(strs[2]);
-				TermVector termVector = new TermVector(docid, "body");
-				termVector.setIndriScore(Double.parseDouble(strs[4]));
+		n = 0;
+		for (Map.Entry<String, InitialRankingFile.Ranking> entry : rankings
+				.entrySet()) {
+			InitialRankingFile.Ranking r = entry.getValue();
+			List<TermVector> list = new ArrayList<TermVector>();
+			for (int i = 0; i < r.docids.length; i++) {
+				TermVector termVector = termVectors[n++];
+				termVector.setIndriScore(r.scores[i]);
 				list.add(termVector);
-				result.put(strs[0], list);
 			}
-
-		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			input.close();
+			result.put(entry.getKey(), list);
 		}
 		return result;
 	}
 
+
 	/**
 	 * parse the generated scorelist and return a list of term vectors
 	 */
@@ -661,113 +1147,163 @@ public class QryEval {
 			ScoreList preRanking, RetrievalModelIndri model) throws IOException {
 		List<TermVector> list = new ArrayList<TermVector>();
 		// convert the scorelist to a list of termvector with scores
-		for (int i = 0; i < preRanking.size() && i < model.getFbDocs(); i++) {
-			int docid = preRanking.getDocid(i);
-			TermVector termVector = new TermVector(docid, "body");
-			termVector.setIndriScore(preRanking.getDocidScore(i));
-			list.add(termVector);
+		int[] docids = new int[Math.min(preRanking.size(), model.getFbDocs())];
+		for (int i = 0; i < docids.length; i++)
+			docids[i] = preRanking.getDocid(i);
+
+		TermVector[] termVectors = TermVectorFetcher.getInstance().fetch(
+				docids, "body");
+		for (int i = 0; i < docids.length; i++) {
+			termVectors[i].setIndriScore(preRanking.getDocidScore(i));
+			list.add(termVectors[i]);
 		}
 		return list;
 	}
 
 	/**
-	 * using the term vectors to generate the set of all terms
-	 */
-	private static HashSet<String> getTermSet(List<TermVector> termVectorList) {
-		HashSet<String> termSet = new HashSet<String>();
-		for (TermVector termVector : termVectorList) {
-			for (int i = 1; i < termVector.stemsLength(); i++) {
-				termSet.add(termVector.stemString(i));
-			}
-		}
-		return termSet;
-	}
-
-	/**
-	 * using the term vectors for this query to generate expanded query
+	 * using the term vectors for this query to generate expanded query.
+	 * 
+	 * Each distinct stem of the feedback documents gets an integer id, and
+	 * weights are accumulated in primitive arrays indexed by it. A stem that
+	 * doesn't occur in a document contributes fbMu * p(t|C) * log(1/p(t|C))
+	 * * p(I|d) / (|d| + fbMu), so the default contributions of all the
+	 * documents are added in closed form from the sum of p(I|d) / (|d| +
+	 * fbMu) over the documents that don't contain the stem.
 	 * 
 	 * @throws IOException
 	 */
 	private static String generateExpandQuery(List<TermVector> termVectorList,
-			HashSet<String> termSet, String query, RetrievalModelIndri model)
-			throws IOException {
+			String query, RetrievalModelIndri model) throws IOException {
 
 		int fbTerms = model.getFbTerms();
 		int fbMu = model.getFbMu();
+		double sumOfFieldLengths = (double) Idx.getSumOfFieldLengths("body");
+
+		Map<String, Integer> termIds = new HashMap<String, Integer>();
+		List<String> terms = new ArrayList<String>();
+		double[] p_t_C = new double[16];
+		double[] weights = new double[16];
+		double[] occurredScale = new double[16]; // over docs with the term
+		double totalScale = 0.0; // over all docs
 
-		Map<String, Double> map = new HashMap<String, Double>();
 		// go through each document
 		for (TermVector termVector : termVectorList) {
 			double p_I_d = termVector.getIndriScore();
+			double docLength = termVector.positionsLength();
+			double scale = p_I_d / (docLength + fbMu);
+			totalScale += scale;
+
 			// go through each term in the document and calculate weights
-			HashSet<String> occurredTerms = new HashSet<String>();
 			for (int i = 1; i < termVector.stemsLength(); i++) {
 				String term = termVector.stemString(i);
-				occurredTerms.add(term);
-				double tf = termVector.stemFreq(i);
-				double p_t_C = ((double) termVector.totalStemFreq(i))
-						/ ((double) Idx.getSumOfFieldLengths("body"));
-				double p_t_d = (tf + fbMu * p_t_C)
-						/ (termVector.positionsLength() + fbMu);
-				double weight = p_I_d * p_t_d * Math.log(1 / p_t_C);
-				if (map.containsKey(term)) {
-					map.put(term, map.get(term) + weight);
-				} else {
-					map.put(term, weight);
-				}
-			}
-
-			// go through the term set and calculate default score for
-			// terms which do not occur in the document
-			for (String term : termSet) {
-				if (!occurredTerms.contains(term)) {
-					double p_t_C = ((double) Idx.INDEXREADER
-							.totalTermFreq(new Term("body", term)))
-							/ ((double) Idx.getSumOfFieldLengths("body"));
-					double p_t_d = (fbMu * p_t_C)
-							/ (termVector.positionsLength() + fbMu);
-					double weight = p_I_d * p_t_d * Math.log(1 / p_t_C);
-					if (map.containsKey(term)) {
-						map.put(term, map.get(term) + weight);
-					} else {
-						map.put(term, weight);
+				Integer id = termIds.get(term);
+				if (id == null) {
+					id = terms.size();
+					termIds.put(term, id);
+					terms.add(term);
+					if (id == weights.length) {
+						p_t_C = Arrays.copyOf(p_t_C, 2 * id);
+						weights = Arrays.copyOf(weights, 2 * id);
+						occurredScale = Arrays.copyOf(occurredScale, 2 * id);
 					}
+					p_t_C[id] = ((double) termVector.totalStemFreq(i))
+							/ sumOfFieldLengths;
 				}
+
+				double tf = termVector.stemFreq(i);
+				double p_t_d = (tf + fbMu * p_t_C[id]) / (docLength + fbMu);
+				weights[id] += p_I_d * p_t_d * Math.log(1 / p_t_C[id]);
+				occurredScale[id] += scale;
 			}
 		}
 
-		// sort the map by value (weights) in desc order
-		List<Map.Entry<String, Double>> list = new ArrayList<Map.Entry<String, Double>>(
-				map.entrySet());
-		Collections.sort(list, new Comparator<Map.Entry<String, Double>>() {
-			public int compare(Map.Entry<String, Double> o1,
-					Map.Entry<String, Double> o2) {
-				if (o2.getValue() > o1.getValue())
-					return 1;
-				else if (o2.getValue() < o1.getValue())
-					return -1;
-				else
-					return 0;
-			}
-		});
+		// add the default scores of the documents that don't contain each
+		// term, and skip terms that can't be written in a query
+		int numOfTerms = terms.size();
+		boolean[] eligible = new boolean[numOfTerms];
+		for (int id = 0; id < numOfTerms; id++) {
+			weights[id] += fbMu * p_t_C[id] * Math.log(1 / p_t_C[id])
+					* (totalScale - occurredScale[id]);
+			String term = terms.get(id);
+			eligible[id] = !term.contains(",") && !term.contains(".");
+		}
 
 		// append the top fbTerms terms to the final string
-		int termCnt = 0;
+		int[] top = topTerms(weights, eligible, numOfTerms, fbTerms);
 		StringBuilder sb = new StringBuilder();
 		sb.append("#wand ( ");
-		for (Map.Entry<String, Double> entry : list) {
-			if (termCnt == fbTerms)
-				break;
-			if (entry.getKey().contains(",") || entry.getKey().contains("."))
-				continue;
-			sb.append(Double.toString(entry.getValue())).append(" ")
-					.append(entry.getKey()).append(" ");
-			termCnt++;
+		for (int id : top) {
+			sb.append(Double.toString(weights[id])).append(" ")
+					.append(terms.get(id)).append(" ");
 		}
 		sb.append(")");
 		return sb.toString();
 	}
 
+	/**
+	 * Select the k eligible terms with the highest weights using a min-heap
+	 * of term ids. Terms with the same weight are ordered by id.
+	 * 
+	 * @return The selected term ids, highest weight first.
+	 */
+	private static int[] topTerms(final double[] weights, boolean[] eligible,
+			int numOfTerms, int k) {
+		int[] heap = new int[Math.max(0, Math.min(k, numOfTerms))];
+		int size = 0;
+
+		for (int id = 0; id < numOfTerms; id++) {
+			if (!eligible[id])
+				continue;
+			if (size < heap.length) {
+				// sift up
+				int i = size++;
+				heap[i] = id;
+				while (i > 0 && worse(weights, heap[i], heap[(i - 1) / 2])) {
+					int parent = (i - 1) / 2;
+					int t = heap[i];
+					heap[i] = heap[parent];
+					heap[parent] = t;
+					i = parent;
+				}
+			} else if (size > 0 && worse(weights, heap[0], id)) {
+				// replace the worst term
+				heap[0] = id;
+				siftDown(weights, heap, size);
+			}
+		}
+
+		// pop the heap from the worst term to the best
+		int[] result = new int[size];
+		for (int n = size - 1; n >= 0; n--) {
+			result[n] = heap[0];
+			heap[0] = heap[n];
+			siftDown(weights, heap, n);
+		}
+		return result;
+	}
+
+	// restore the heap order of the first size term ids after the root
+	// was replaced
+	private static void siftDown(double[] weights, int[] heap, int size) {
+		int i = 0;
+		while (2 * i + 1 < size) {
+			int child = 2 * i + 1;
+			if (child + 1 < size && worse(weights, heap[child + 1], heap[child]))
+				child++;
+			if (!worse(weights, heap[child], heap[i]))
+				break;
+			int t = heap[i];
+			heap[i] = heap[child];
+			heap[child] = t;
+			i = child;
+		}
+	}
+
+	// true if term a ranks below term b
+	private static boolean worse(double[] weights, int a, int b) {
+		return (weights[a] < weights[b]) || (weights[a] == weights[b] && a > b);
+	}
+
 	/**
 	 * Process the files for Letor.
 	 * 
@@ -780,30 +1316,39 @@ public class QryEval {
 
 		Map<String, Map<Integer, Integer>> qrelsMap = parseTrainQrels(model
 				.getTrainingQrelsFile());
-		Map<Integer, Double> pageRankMap = parsePageRank(model
-				.getPageRankFile());
-
-		parseTrainQuery(model, qrelsMap, pageRankMap);
-
-		// train the model using parsed training data file (feature vector file)
-		String[] runtimeArgs = new String[] { model.getSvmRankLearnPath(),
-				"-c", String.valueOf(model.getSvmRankParamC()),
-				model.getTrainingFeatureVectorsFile(),
-				model.getSvmRankModelFile() };
-		callSVMrank(runtimeArgs);
-
-		ArrayList<FeatureVector> bigList = parseTestQuery(testQueryFilePath,
-				model, pageRankMap);
-
-		// classify the test queries using test feature vector files and trained
-		// model
-		runtimeArgs = new String[] { model.getSvmRankClassifyPath(),
-				model.getTestingFeatureVectorsFile(),
-				model.getSvmRankModelFile(), model.getTestingDocumentScores() };
-		callSVMrank(runtimeArgs);
-
-		// parse the SVM classify output file and generate final output
-		parseSVMrank(model, outputFile, bigList);
+		// the PageRank file is only read if an enabled feature uses it
+		Map<Integer, Double> pageRankMap = new HashMap<Integer, Double>();
+		FeatureRegistry features = model.getFeatureRegistry();
+		if (features.getInputs(features.getEnabled(model.getFeatureDisable()))
+				.needsPageRank())
+			pageRankMap = parsePageRank(model.getPageRankFile());
+
+		// the feature vectors are only kept in memory for the in-process
+		// trainers; svm_rank_learn reads the training file, and a binary
+		// training file is memory-mapped back once it is complete
+		boolean inProcess = !model.getLearner().equals("svm_rank_learn");
+		boolean binary = model.getFeatureFileFormat().equals("binary");
+		FeatureMatrix trainList = parseTrainQuery(model, qrelsMap, pageRankMap,
+				inProcess && !binary);
+		if (inProcess && binary)
+			trainList = FeatureFile.read(model.getTrainingFeatureVectorsFile());
+
+		// train the model, and write it to the model file
+		trainLetor(model, trainList);
+
+		FeatureMatrix bigList = parseTestQuery(testQueryFilePath, model,
+				pageRankMap);
+
+		// score the test feature vectors in-process with the trained model
+		Ranker ranker = Ranker.load(model.getSvmRankModelFile());
+		double[] scores = ranker.score(bigList);
+
+		// write the scores and generate final output
+		writeDocumentScores(model, scores);
+		printLetorResults(outputFile, bigList, scores);
+
+		if (model.getFeatureCache() != null)
+			System.out.println("Feature cache:  " + model.getFeatureCache());
 	}
 
 	/**
@@ -900,106 +1445,152 @@ public class QryEval {
 
 	/**
 	 * Parse the training query files, generate feature vector files for
-	 * training
+	 * training. The queries are processed in qid order, and the normalized
+	 * feature vectors of each query are written as soon as the query is
+	 * done, so only a few queries are held in memory at a time.
 	 * 
 	 * @param RetrievalModelletor
 	 *            model, qrelsMap, pageRankMap
+	 * @param keep
+	 *            true to also return the feature vectors, for the in-process
+	 *            trainers
+	 * @return the training feature vectors sorted by qid, then docid, or an
+	 *         empty matrix if keep is false
 	 * @throws IOException
 	 * */
-	private static void parseTrainQuery(RetrievalModelletor model,
+	private static FeatureMatrix parseTrainQuery(
+			RetrievalModelletor model,
 			Map<String, Map<Integer, Integer>> qrelsMap,
-			Map<Integer, Double> pageRankMap) throws IOException {
+			Map<Integer, Double> pageRankMap, boolean keep) throws IOException {
 
 		BufferedReader input = null;
-		PrintWriter fvWriter = null;
+		FeatureFile.Writer fvWriter = null;
 		String trainingQueryFile = model.getTrainingQueryFile();
-		ArrayList<FeatureVector> bigList = new ArrayList<FeatureVector>();
+		FeatureMatrix trainList = new FeatureMatrix(model.getFeatureRegistry()
+				.size(), 1);
+		FeatureVectorGenerator generator = new FeatureVectorGenerator(model,
+				pageRankMap, model.getThreads());
+
+		// queries in flight on the generator's workers; more than one keeps
+		// the workers busy on files of many short queries
+		int window = Math.max(1, model.getThreads());
 
 		try {
 			String qLine = null;
 			input = new BufferedReader(new FileReader(trainingQueryFile));
-			fvWriter = new PrintWriter(model.getTrainingFeatureVectorsFile(),
-					"UTF-8");
-
+			fvWriter = new FeatureFile.Writer(
+					model.getTrainingFeatureVectorsFile(), model
+							.getFeatureRegistry().size(), model
+							.getFeatureFileFormat().equals("binary"));
+
+			// read the query lines and sort them by qid, so that each query's
+			// feature vectors can be written in final order as it is done
+			List<String> qLines = new ArrayList<String>();
 			while ((qLine = input.readLine()) != null) {
-				int d = qLine.indexOf(':');
-				if (d < 0) {
+				if (qLine.indexOf(':') < 0) {
 					throw new IllegalArgumentException(
 							"Syntax error:  Missing ':' in training query line.");
 				}
+				qLines.add(qLine);
+			}
+			Collections.sort(qLines, new Comparator<String>() {
+				public int compare(String a, String b) {
+					int aqid = Integer.parseInt(a.substring(0, a.indexOf(':')));
+					int bqid = Integer.parseInt(b.substring(0, b.indexOf(':')));
+					return (aqid < bqid) ? -1 : ((aqid == bqid) ? 0 : 1);
+				}
+			});
 
-				String qid = qLine.substring(0, d);
-				String query = qLine.substring(d + 1);
+			for (String line : qLines) {
+				int d = line.indexOf(':');
+				String qid = line.substring(0, d);
+				String query = line.substring(d + 1);
 
-				System.out.println("Training query " + qLine);
+				System.out.println("Training query " + line);
 				Map<Integer, Integer> qrel = qrelsMap.get(qid);
 
 				// generate all feature vectors for all document associated with
-				// this query
-				generateFeatureVectors(query, qid, qrel, pageRankMap, model,
-						bigList);
-			}
-
-			// sort the big list based on the qid and then docid
-			Collections.sort(bigList);
+				// this query on the generator's workers
+				generator.add(qid, tokenizeQuery(query), qrel);
 
-			// write every <q,d> vectors to the file
-			for (FeatureVector fv : bigList) {
-				fv.writeFeatureVector(fvWriter);
+				// write the earliest queries once the window is full
+				while (generator.pending() >= window)
+					writeTrainQuery(generator.next(), fvWriter, trainList, keep);
 			}
 
+			// write the remaining queries
+			while (generator.pending() > 0)
+				writeTrainQuery(generator.next(), fvWriter, trainList, keep);
+
 		} catch (Exception e) {
 			e.printStackTrace();
 		} finally {
+			generator.close();
 			input.close();
-			fvWriter.close();
+			if (fvWriter != null)
+				fvWriter.close();
 		}
+
+		return trainList;
 	}
 
 	/**
-	 * Help method for generating feature vectors add those newly generated
-	 * vectors for this query to the big list
-	 * 
-	 * @throws IOException
-	 * */
-	private static void generateFeatureVectors(String query, String qid,
-			Map<Integer, Integer> qrel, Map<Integer, Double> pageRankMap,
-			RetrievalModelletor model, ArrayList<FeatureVector> bigList)
+	 * Write the normalized feature vectors of one training query, sorted by
+	 * docid, and keep them for training if needed
+	 */
+	private static void writeTrainQuery(FeatureMatrix query,
+			FeatureFile.Writer fvWriter, FeatureMatrix trainList, boolean keep)
 			throws IOException {
+		fvWriter.write(query);
+		if (keep)
+			trainList.addAll(query);
+	}
 
-		// tokenize query into tokens and construct a hashset for them
-		String[] queryTokens = tokenizeQuery(query);
-
-		ArrayList<FeatureVector> list = new ArrayList<FeatureVector>();
-
-		// arrays for store max and min values for each feature for
-		// normalization
-		double[] featureVectorMax = new double[FeatureVector.FEATURE_SIZE];
-		double[] featureVectorMin = new double[FeatureVector.FEATURE_SIZE];
-		Arrays.fill(featureVectorMax, Double.MIN_VALUE);
-		Arrays.fill(featureVectorMin, Double.MAX_VALUE);
-		
-		// go through each doc and generate feature vector for every <q, d>
-		// add each vector to list for normalization
-		for (Map.Entry<Integer, Integer> entry : qrel.entrySet()) {
-			int docid = entry.getKey();
-			int relScore = entry.getValue();
-			double pageRankScore = FeatureVector.INVALID_FEATURE;
-			if(pageRankMap.containsKey(docid))
-				pageRankScore = pageRankMap.get(docid);
-
-			FeatureVector featureVector = new FeatureVector(qid, queryTokens,
-					docid, relScore, pageRankScore, model);
-			list.add(featureVector);
-			featureVector.findMaxMinFeatureValue(featureVectorMax,
-					featureVectorMin);
+	/**
+	 * Train the learning to rank model with the learner selected by
+	 * letor:learner, and write it to the model file
+	 * 
+	 * @param model
+	 * @param trainList
+	 *            the training feature vectors, sorted by qid
+	 * @throws Exception
+	 */
+	private static void trainLetor(RetrievalModelletor model,
+			FeatureMatrix trainList) throws Exception {
+		String learner = model.getLearner();
+
+		if (learner.equals("svm_rank_learn")) {
+			// train the model using parsed training data file (feature vector
+			// file)
+			String[] runtimeArgs = new String[] { model.getSvmRankLearnPath(),
+					"-c", String.valueOf(model.getSvmRankParamC()),
+					model.getTrainingFeatureVectorsFile(),
+					model.getSvmRankModelFile() };
+			callSVMrank(runtimeArgs);
+			return;
 		}
 
-		// normalize each feature vector and add to the big list
-		for (FeatureVector fv : list) {
-			fv.normFeatureVector(featureVectorMax, featureVectorMin);
-			bigList.add(fv);
+		if (learner.equalsIgnoreCase("LambdaMART")) {
+			RankerTrainerLambdaMart trainer = new RankerTrainerLambdaMart(
+					model.getNumTrees(), model.getNumLeaves(),
+					model.getLearningRate(), model.getMinLeafSupport(),
+					model.getNumThresholds(), model.getThreads());
+			trainer.train(trainList).write(model.getSvmRankModelFile());
+			return;
 		}
+
+		RankerTrainerPairwise.Loss loss = null;
+		if (learner.equalsIgnoreCase("RankSVM"))
+			loss = RankerTrainerPairwise.Loss.HINGE;
+		else if (learner.equalsIgnoreCase("RankNet"))
+			loss = RankerTrainerPairwise.Loss.LOGISTIC;
+		else
+			throw new IllegalArgumentException("Unknown letor:learner "
+					+ learner);
+
+		RankerTrainerPairwise trainer = new RankerTrainerPairwise(loss,
+				model.getSvmRankParamC(), 1000, model.getThreads(), 0L);
+		trainer.train(trainList).write(model.getSvmRankModelFile());
 	}
 
 	/**
@@ -1049,20 +1640,25 @@ public class QryEval {
 	 * @return an ArrayList of all FeatureVectors
 	 * @throws IOException
 	 * */
-	private static ArrayList<FeatureVector> parseTestQuery(
+	private static FeatureMatrix parseTestQuery(
 			String testQueryFilePath, RetrievalModelletor model,
 			Map<Integer, Double> pageRankMap) throws IOException {
 		BufferedReader input = null;
-		PrintWriter fvWriter = null;
+		FeatureFile.Writer fvWriter = null;
 		RetrievalModelBM25 normalBM25Model = new RetrievalModelBM25(
 				model.getK_1(), model.getB(), model.getK_3());
-		ArrayList<FeatureVector> bigList = new ArrayList<FeatureVector>();
+		FeatureMatrix bigList = new FeatureMatrix(model.getFeatureRegistry()
+				.size(), 1);
+		FeatureVectorGenerator generator = new FeatureVectorGenerator(model,
+				pageRankMap, model.getThreads());
 
 		try {
 			String qLine = null;
 			input = new BufferedReader(new FileReader(testQueryFilePath));
-			fvWriter = new PrintWriter(model.getTestingFeatureVectorsFile(),
-					"UTF-8");
+			fvWriter = new FeatureFile.Writer(
+					model.getTestingFeatureVectorsFile(), model
+							.getFeatureRegistry().size(), model
+							.getFeatureFileFormat().equals("binary"));
 
 			// line format is "external_docid pageRank_score"
 			while ((qLine = input.readLine()) != null) {
@@ -1093,64 +1689,83 @@ public class QryEval {
 				}
 
 				// generate all feature vectors for all document associated with
-				// this query
-				generateFeatureVectors(query, qid, qrel, pageRankMap, model,
-						bigList);
+				// this query on the generator's workers, while the next query
+				// is evaluated
+				generator.add(qid, tokenizeQuery(query), qrel);
 			}
 
-			// sort the big list based on qid and then docid, then write to test
-			// file
-			Collections.sort(bigList);
-			for (FeatureVector fv : bigList) {
-				fv.writeFeatureVector(fvWriter);
-			}
+			// wait for the feature vectors, normalized per query and sorted
+			// by qid and then docid, then write to test file
+			bigList = generator.finish();
+			fvWriter.write(bigList);
 
 		} catch (Exception e) {
 			e.printStackTrace();
 		} finally {
+			// stop the workers even if the queries failed, or they keep the
+			// JVM alive
+			generator.close();
 			input.close();
-			fvWriter.close();
+			if (fvWriter != null)
+				fvWriter.close();
 		}
 
 		return bigList;
 	}
 	
 	/**
-	 * parse the SVM classify output file and generate final output
+	 * write the score of each test feature vector to testingDocumentScores,
+	 * one per line in the order of the test feature vector file, as
+	 * svm_rank_classify does
 	 * 
-	 * @param bigList
 	 * @param model
-	 *            , outputFile
+	 * @param scores
+	 *            the score of each test feature vector
 	 * @throws IOException
 	 */
-	private static void parseSVMrank(RetrievalModelletor model,
-			String outputFile, ArrayList<FeatureVector> bigList)
+	private static void writeDocumentScores(RetrievalModelletor model,
+			double[] scores) throws IOException {
+		if (model.getTestingDocumentScores() == null)
+			return;
+
+		PrintWriter output = new PrintWriter(model.getTestingDocumentScores(),
+				"UTF-8");
+		try {
+			for (double score : scores)
+				output.println(Double.toString(score));
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 * rerank the scored test feature vectors and generate final output
+	 * 
+	 * @param outputFile
+	 * @param bigList
+	 * @param scores
+	 *            the score of each test feature vector
+	 * @throws IOException
+	 */
+	private static void printLetorResults(String outputFile,
+			final FeatureMatrix bigList, final double[] scores)
 			throws IOException {
 
-		BufferedReader input = null;
 		PrintWriter output = null;
 
 		try {
-			input = new BufferedReader(new FileReader(
-					model.getTestingDocumentScores()));
 			output = new PrintWriter(outputFile, "UTF-8");
-			String line = null;
-
-			// parse the doc to assign svm scores for each <q,d> in big list
-			// (the same order)
-			int i = 0;
-			while ((line = input.readLine()) != null) {
-				bigList.get(i).setSvmScore(Double.parseDouble(line.trim()));
-				i++;
-			}
 
-			// sort the list first by qid then by svm score
-			Collections.sort(bigList, new Comparator<FeatureVector>() {
-				public int compare(FeatureVector a, FeatureVector b) {
-					int aqid = Integer.parseInt(a.getQid());
-					int bqid = Integer.parseInt(b.getQid());
+			// sort the pairs first by qid then by svm score
+			Integer[] order = new Integer[bigList.size()];
+			for (int i = 0; i < order.length; i++)
+				order[i] = i;
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					int aqid = Integer.parseInt(bigList.getQid(a));
+					int bqid = Integer.parseInt(bigList.getQid(b));
 					if (aqid == bqid) {
-						double diff = b.getSvmScore() - a.getSvmScore();
+						double diff = scores[b] - scores[a];
 						if (diff > 0)
 							return 1;
 						else if (diff < 0)
@@ -1163,26 +1778,27 @@ public class QryEval {
 				}
 			});
 
-			// go through the list and write to final output line by line in
+			// go through the pairs and write to final output line by line in
 			// teIn format
 			int rank = 1;
-			String lastQid = bigList.get(0).getQid();
-			for (FeatureVector fv : bigList) {
-				if (!fv.getQid().equals(lastQid)) {
+			String lastQid = null;
+			for (int i : order) {
+				String qid = bigList.getQid(i);
+				if (!qid.equals(lastQid)) {
 					rank = 1;
-					lastQid = fv.getQid();
+					lastQid = qid;
 				}
-				output.println(fv.getQid() + " Q0 "
-						+ Idx.getExternalDocid(fv.getDocid()) + " "
+				output.println(qid + " Q0 "
+						+ Idx.getExternalDocid(bigList.getDocid(i)) + " "
 						+ Integer.toString(rank) + " "
-						+ Double.toString(fv.getSvmScore()) + " run-1");
+						+ Double.toString(scores[i]) + " run-1");
 				rank++;
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
 		} finally {
-			input.close();
-			output.close();
+			if (output != null)
+				output.close();
 		}
 	}
 
@@ -1296,22 +1912,11 @@ public class QryEval {
 	 */
 	static String[] tokenizeQuery(String query) throws IOException {
 
-		TokenStreamComponents comp = ANALYZER.createComponents("dummy",
-				new StringReader(query));
-		TokenStream tokenStream = comp.getTokenStream();
-
-		CharTermAttribute charTermAttribute = tokenStream
-				.addAttribute(CharTermAttribute.class);
-		tokenStream.reset();
-
-		List<String> tokens = new ArrayList<String>();
-
-		while (tokenStream.incrementToken()) {
-			String term = charTermAttribute.toString();
-			tokens.add(term);
-		}
+		// The analyzer remembers the tokens of recent strings, and reuses
+		// one token stream per thread, so the tokenizer and filter chain
+		// are only built once.
 
-		return tokens.toArray(new String[tokens.size()]);
+		return ANALYZER.tokenize(query);
 	}
 
 }
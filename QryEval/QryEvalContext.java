@@ -0,0 +1,57 @@
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ *  Document-level values that are shared by the query operators of one
+ *  query.  When a query scores a candidate document, every SCORE
+ *  operator needs the length of its field in that document; the
+ *  context fetches each (field, docid) length once and returns the
+ *  cached value to the other operators.
+ *  <p>
+ *  The SCORE operators look lengths up as they advance, so at any time
+ *  they may be positioned on different documents.  The cache is a small
+ *  direct-mapped table keyed by (field, docid), so lengths of several
+ *  documents stay cached while the operators catch up with each other,
+ *  and the context stays small.
+ *  </p>
+ *  <p>
+ *  The root QrySop operator creates the context, and QrySop.initialize
+ *  passes it down to nested score operators.
+ *  </p>
+ */
+public class QryEvalContext {
+
+	private static final int SLOT_BITS = 6;
+	private static final int SLOTS = 1 << SLOT_BITS;
+
+	private final int[] docids = new int[SLOTS];
+	private final String[] fields = new String[SLOTS];
+	private final int[] fieldLengths = new int[SLOTS];
+
+	public QryEvalContext () {
+		Arrays.fill (this.docids, Qry.INVALID_DOCID);
+	}
+
+	/**
+	 *  Get the length of a field in a document, fetching it from the
+	 *  index only the first time it is requested for the document, unless
+	 *  another (field, docid) pair has taken its slot since.
+	 *  @param fieldName Name of field to access lengths.
+	 *  @param docid The internal docid in the lucene index.
+	 *  @return the length of the field, including stopword positions.
+	 *  @throws IOException Error accessing the Lucene index.
+	 */
+	public int getFieldLength (String fieldName, int docid) throws IOException {
+		int slot = ((docid + fieldName.hashCode ()) * 0x9E3779B9) >>> (32 - SLOT_BITS);
+
+		if (this.docids[slot] == docid && fieldName.equals (this.fields[slot]))
+			return this.fieldLengths[slot];
+
+		int length = Idx.getFieldLength (fieldName, docid);
+
+		this.docids[slot] = docid;
+		this.fields[slot] = fieldName;
+		this.fieldLengths[slot] = length;
+		return length;
+	}
+}
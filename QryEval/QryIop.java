@@ -150,6 +150,17 @@ public abstract class QryIop extends Qry {
 		return this.invertedList.df;
 	}
 
+	/**
+	 *  Get a copy of the query tree with fresh iterator state, including
+	 *  the field of the operator.
+	 *  @return The copy.
+	 */
+	public Qry copy () {
+		QryIop q = (QryIop) super.copy ();
+		q.field = this.field;
+		return q;
+	}
+
 	/**
 	 *  Get the field associated with this query operator.
 	 *  @return The field associated with this query operator.
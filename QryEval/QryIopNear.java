@@ -41,6 +41,13 @@ public class QryIopNear extends QryIop {
 		return this.nearInt;
 	}
 
+	/**
+	 *  Create an empty operator with the same distance, for copy.
+	 */
+	protected Qry newOperator() {
+		return new QryIopNear(this.nearInt, this.field);
+	}
+
 	/**
 	 *  Evaluate the query operator; the result is an internal inverted
 	 *  list that may be accessed via the internal iterators.
@@ -9,6 +9,22 @@ import java.util.*;
  */
 public class QryIopSyn extends QryIop {
 
+  /**
+   *  Get the documents that match any synonym, without merging the
+   *  locations of the arguments' inverted lists.
+   *  @param r The retrieval model that determines what is a match
+   *  @return The matching documents.
+   *  @throws IOException Error accessing the Lucene index.
+   */
+  public DocidBitmap getDocidBitmap (RetrievalModel r) throws IOException {
+    DocidBitmap result = DocidBitmap.fromSortedDocids (new int[0], 0);
+
+    for (int i = 0; i < this.args.size (); i++) {
+      result = result.or (this.args.get (i).getDocidBitmap (r));
+    }
+    return result;
+  }
+
   /**
    *  Evaluate the query operator; the result is an internal inverted
    *  list that may be accessed via the internal iterators.
@@ -25,48 +41,90 @@ public class QryIopSyn extends QryIop {
       return;
     }
 
+    //  The arguments are kept in a heap ordered by their current docid,
+    //  so the next document is found without scanning every argument.
+
+    int numOfArgs = this.args.size ();
+    IntHeap docHeap = new IntHeap (numOfArgs);
+
+    for (int i = 0; i < numOfArgs; i++) {
+      if (this.args.get (i).docIteratorHasMatch (null)) {
+        docHeap.add (i, this.args.get (i).docIteratorGetMatch ());
+      }
+    }
+
+    IntHeap locHeap = new IntHeap (numOfArgs);
+    List<Vector<Integer>> locations = new ArrayList<Vector<Integer>> (numOfArgs);
+    int[] locIndex = new int[numOfArgs];
+    int[] positions = new int[16];
+
+    for (int i = 0; i < numOfArgs; i++) {
+      locations.add (null);
+    }
+
     //  Each pass of the loop adds 1 document to result inverted list
     //  until all of the argument inverted lists are depleted.
 
-    while (true) {
+    while (docHeap.size () > 0) {
 
-      //  Find the minimum next document id.  If there is none, we're done.
+      int minDocid = docHeap.minKey ();
+      int tf = 0;
 
-      int minDocid = Qry.INVALID_DOCID;
+      //  Remember the locations of every argument that matches minDocid,
+      //  and advance those arguments to their next document.
+
+      locHeap.clear ();
+
+      while ((docHeap.size () > 0) && (docHeap.minKey () == minDocid)) {
+        int i = docHeap.minId ();
+        QryIop q_i = this.getArg (i);
+        Vector<Integer> locations_i = q_i.docIteratorGetMatchPosting ().positions;
+
+        if (locations_i.size () > 0) {
+          locations.set (i, locations_i);
+          locIndex[i] = 0;
+          locHeap.add (i, locations_i.get (0));
+          tf += locations_i.size ();
+        }
+
+        q_i.docIteratorAdvancePast (minDocid);
 
-      for (Qry q_i: this.args) {
         if (q_i.docIteratorHasMatch (null)) {
-          int q_iDocid = q_i.docIteratorGetMatch ();
-          
-          if ((minDocid > q_iDocid) ||
-              (minDocid == Qry.INVALID_DOCID)) {
-            minDocid = q_iDocid;
-          }
+          docHeap.replaceMinKey (q_i.docIteratorGetMatch ());
+        } else {
+          docHeap.poll ();
         }
       }
 
-      if (minDocid == Qry.INVALID_DOCID)
-        break;				// All docids have been processed.  Done.
-      
-      //  Create a new posting that is the union of the posting lists
-      //  that match the minDocid.  Save it.
-      //  Note:  This implementation assumes that a location will not appear
-      //  in two or more arguments.  #SYN (apple apple) would break it.
-
-      List<Integer> positions = new ArrayList<Integer>();
-
-      for (Qry q_i: this.args) {
-        if (q_i.docIteratorHasMatch (null) &&
-            (q_i.docIteratorGetMatch () == minDocid)) {
-          Vector<Integer> locations_i =
-            ((QryIop) q_i).docIteratorGetMatchPosting().positions;
-	  positions.addAll (locations_i);
-          q_i.docIteratorAdvancePast (minDocid);
-	}
+      //  Merge the sorted location lists.  A location that appears in
+      //  two or more arguments, e.g., #SYN (apple apple), is kept once.
+
+      if (positions.length < tf) {
+        positions = new int[Math.max (tf, 2 * positions.length)];
       }
 
-      Collections.sort (positions);
-      this.invertedList.appendPosting (minDocid, positions);
+      int n = 0;
+
+      while (locHeap.size () > 0) {
+        int i = locHeap.minId ();
+        int loc = locHeap.minKey ();
+
+        if ((n == 0) || (positions[n - 1] != loc)) {
+          positions[n++] = loc;
+        }
+
+        locIndex[i] ++;
+
+        if (locIndex[i] < locations.get (i).size ()) {
+          locHeap.replaceMinKey (locations.get (i).get (locIndex[i]));
+        } else {
+          locHeap.poll ();
+        }
+      }
+
+      if (n > 0) {
+        this.invertedList.appendPosting (minDocid, positions, n);
+      }
     }
   }
 
@@ -15,6 +15,12 @@ public class QryIopTerm extends QryIop {
 
 	private String term;
 
+	/**
+	 * Inverted lists that are shared by every TERM operator while sharing is
+	 * on, keyed by "field:term", or null if each operator reads its own.
+	 */
+	private static volatile Map<String, InvList> SHARED_POSTINGS = null;
+
 	/**
 	 * The term is assumed to match the body field.
 	 * 
@@ -47,7 +53,57 @@ public class QryIopTerm extends QryIop {
 	 *             Error accessing the Lucene index.
 	 */
 	protected void evaluate() throws IOException {
-		this.invertedList = new InvList(this.getTerm(), this.field);
+		Map<String, InvList> shared = SHARED_POSTINGS;
+		if (shared == null) {
+			this.invertedList = new InvList(this.getTerm(), this.field);
+			return;
+		}
+
+		String key = this.field + ":" + this.getTerm();
+		synchronized (shared) {
+			this.invertedList = shared.get(key);
+			if (this.invertedList == null) {
+				this.invertedList = new InvList(this.getTerm(), this.field);
+				shared.put(key, this.invertedList);
+			}
+		}
+	}
+
+	/**
+	 * Turn sharing of inverted lists on or off. While it is on, terms that
+	 * are evaluated again, e.g. the original query inside an expanded
+	 * relevance feedback query, reuse the inverted list that was already
+	 * read. Inverted lists are never modified by the operators that read
+	 * them, so they can be shared. Turning sharing off frees them.
+	 * 
+	 * @param on
+	 *            True to start sharing, false to stop.
+	 */
+	public static void sharePostings(boolean on) {
+		SHARED_POSTINGS = on ? new HashMap<String, InvList>() : null;
+	}
+
+	/**
+	 * Get the documents that contain the term. Bitmaps of terms are cached
+	 * by Idx, so frequent terms are read from the index only once.
+	 * 
+	 * @param r
+	 *            The retrieval model that determines what is a match
+	 * @return The matching documents.
+	 * @throws IOException
+	 *             Error accessing the Lucene index.
+	 */
+	public DocidBitmap getDocidBitmap(RetrievalModel r) throws IOException {
+		return Idx.getDocidBitmap(this.getTerm(), this.field);
+	}
+
+	/**
+	 * Create an empty operator for the same term, for copy.
+	 * 
+	 * @return The new operator.
+	 */
+	protected Qry newOperator() {
+		return new QryIopTerm(this.getTerm(), this.field);
 	}
 
 	/**
@@ -36,6 +36,13 @@ public class QryIopWindow extends QryIop {
 	public int getwindowSize() {
 		return this.windowSize;
 	}
+
+	/**
+	 *  Create an empty operator with the same window size, for copy.
+	 */
+	protected Qry newOperator() {
+		return new QryIopWindow(this.windowSize, this.field);
+	}
 	
 	@Override
 	protected void evaluate() throws IOException {
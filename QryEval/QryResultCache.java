@@ -0,0 +1,209 @@
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ *  A cache of query results.  The key is the string version of an
+ *  optimized query and its retrieval model, so queries that parse to the
+ *  same tree share an entry; the value is the top DEPTH documents of the
+ *  sorted ScoreList.  Recently used entries are kept in memory, and an
+ *  optional directory keeps every entry on disk so later runs can reuse
+ *  them.  Entries remember the version of the index they were computed
+ *  from and are ignored once the index changes.
+ */
+public class QryResultCache {
+
+	//  --------------- Constants and variables ---------------------
+
+	/**
+	 *  The number of results kept for each query, which is the number
+	 *  of results printed for each query.
+	 */
+	public static final int DEPTH = 100;
+
+	private final int capacity;
+	private final File directory;
+	private final String indexVersion;
+
+	private long lookups = 0;
+	private long memoryHits = 0;
+	private long diskHits = 0;
+
+	private static class Entry {
+		private int[] docids;
+		private String[] externalIds;
+		private double[] scores;
+	}
+
+	private LinkedHashMap<String, Entry> memory;
+
+	//  --------------- Methods ---------------------------------------
+
+	/**
+	 *  @param capacity The number of queries kept in memory.
+	 *  @param directoryPath A directory for the disk tier, or null.
+	 */
+	public QryResultCache(int capacity, String directoryPath) {
+		this.capacity = capacity;
+		this.indexVersion = Idx.getIndexVersion();
+		this.memory = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return this.size() > QryResultCache.this.capacity;
+			}
+		};
+
+		if (directoryPath != null) {
+			this.directory = new File(directoryPath);
+			this.directory.mkdirs();
+		} else {
+			this.directory = null;
+		}
+	}
+
+	/**
+	 *  Look up the results of a query.
+	 *  @param key The optimized query and retrieval model.
+	 *  @return A sorted ScoreList with at most DEPTH entries, or null if
+	 *  the query isn't cached.
+	 */
+	public synchronized ScoreList get(String key) {
+		this.lookups++;
+
+		Entry entry = this.memory.get(key);
+		if (entry != null) {
+			this.memoryHits++;
+		} else if (this.directory != null) {
+			entry = this.readEntry(key);
+			if (entry != null) {
+				this.diskHits++;
+				this.memory.put(key, entry);
+			}
+		}
+
+		if (entry == null)
+			return null;
+
+		ScoreList r = new ScoreList();
+		for (int i = 0; i < entry.docids.length; i++)
+			r.add(entry.docids[i], entry.externalIds[i], entry.scores[i]);
+		return r;
+	}
+
+	/**
+	 *  Store the results of a query.
+	 *  @param key The optimized query and retrieval model.
+	 *  @param r The query's results, which must be sorted.
+	 */
+	public synchronized void put(String key, ScoreList r) {
+		int n = Math.min(DEPTH, r.size());
+		Entry entry = new Entry();
+		entry.docids = new int[n];
+		entry.externalIds = new String[n];
+		entry.scores = new double[n];
+
+		for (int i = 0; i < n; i++) {
+			entry.docids[i] = r.getDocid(i);
+			entry.externalIds[i] = r.getExternalDocid(i);
+			entry.scores[i] = r.getDocidScore(i);
+		}
+
+		this.memory.put(key, entry);
+		if (this.directory != null)
+			this.writeEntry(key, entry);
+	}
+
+	/**
+	 *  @return The fraction of lookups that were found in either tier.
+	 */
+	public synchronized double getHitRate() {
+		return (this.lookups > 0) ?
+				(this.memoryHits + this.diskHits) / (double) this.lookups : 0;
+	}
+
+	/**
+	 *  @return The lookup and hit counts of each tier.
+	 */
+	public synchronized String toString() {
+		return String.format("%d lookups, %d memory hits, %d disk hits, hit rate %.1f%%",
+				this.lookups, this.memoryHits, this.diskHits, 100 * this.getHitRate());
+	}
+
+	//the disk tier stores each entry in a file named by the hash of its key
+	private File entryFile(String key) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+			StringBuilder name = new StringBuilder();
+			for (byte b : hash)
+				name.append(String.format("%02x", b));
+			return new File(this.directory, name + ".qrc");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private Entry readEntry(String key) {
+		File file = this.entryFile(key);
+		if (!file.exists())
+			return null;
+
+		DataInputStream input = null;
+		try {
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+			if (!input.readUTF().equals(this.indexVersion) || !input.readUTF().equals(key))
+				return null;
+
+			Entry entry = new Entry();
+			int n = input.readInt();
+			entry.docids = new int[n];
+			entry.externalIds = new String[n];
+			entry.scores = new double[n];
+			for (int i = 0; i < n; i++) {
+				entry.docids[i] = input.readInt();
+				entry.externalIds[i] = input.readUTF();
+				entry.scores[i] = input.readDouble();
+			}
+			return entry;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		} finally {
+			try {
+				if (input != null)
+					input.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void writeEntry(String key, Entry entry) {
+		DataOutputStream output = null;
+		try {
+			output = new DataOutputStream(new BufferedOutputStream(
+					new FileOutputStream(this.entryFile(key))));
+			output.writeUTF(this.indexVersion);
+			output.writeUTF(key);
+			output.writeInt(entry.docids.length);
+			for (int i = 0; i < entry.docids.length; i++) {
+				output.writeInt(entry.docids[i]);
+				output.writeUTF(entry.externalIds[i]);
+				output.writeDouble(entry.scores[i]);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			try {
+				if (output != null)
+					output.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
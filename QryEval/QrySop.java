@@ -18,6 +18,11 @@ public abstract class QrySop extends Qry {
 	 *  getScore don't have to recompute it.
 	 */
 	private double scoreCache = 0.0;
+
+	/**
+	 *  Document-level values shared by the score operators of a query.
+	 */
+	private QryEvalContext context = null;
 	
 	/**
 	 *  Get a score for the document that docIteratorHasMatch matched.
@@ -28,6 +33,19 @@ public abstract class QrySop extends Qry {
 	public abstract double getScore (RetrievalModel r)
 			throws IOException;
 
+	/**
+	 *  Calculate the score of the document that docIteratorHasMatch
+	 *  matched without using score caches, so the score may be for a
+	 *  different parameter setting of the retrieval model than the one
+	 *  used to find the match.  The arguments are scored the same way.
+	 *  The iterators are not moved.
+	 *  @param r The retrieval model that determines how scores are calculated.
+	 *  @return The document score.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	public abstract double getScoreUncached (RetrievalModel r)
+			throws IOException;
+
 	/**
 	 *  Initialize the query operator (and its arguments), including any
 	 *  internal iterators.  If the query operator is of type QryIop, it
@@ -38,8 +56,26 @@ public abstract class QrySop extends Qry {
 	 */
 	public void initialize(RetrievalModel r) throws IOException {
 		for (Qry q_i: this.args) {
+			if (q_i instanceof QrySop)
+				((QrySop) q_i).setContext (this.getContext ());
 			q_i.initialize (r);
 		}
+		this.docIteratorResetArgHeap ();
+	}
+
+	/**
+	 *  Get the evaluation context of the query, creating one if this
+	 *  operator is the root of the query.
+	 *  @return The evaluation context.
+	 */
+	public QryEvalContext getContext() {
+		if (this.context == null)
+			this.context = new QryEvalContext();
+		return this.context;
+	}
+
+	public void setContext(QryEvalContext context) {
+		this.context = context;
 	}
 
 	public double getScoreCache() {
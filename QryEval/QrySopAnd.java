@@ -43,18 +43,12 @@ public class QrySopAnd extends QrySop {
 			// Get the docid of the first query argument.
 
 			Qry q_0 = this.args.get (0);
-			double minScore = Double.MAX_VALUE;
 
 			if (! q_0.docIteratorHasMatch (r)) {
 				return false;
 			}
 
 			int docid_0 = q_0.docIteratorGetMatch ();
-			try {
-				minScore = ((QrySop) q_0).getScore(r);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
 
 			// Other query arguments must match the docid of the first query
 			// argument.
@@ -78,26 +72,40 @@ public class QrySopAnd extends QrySop {
 					matchFound = false;
 					break;
 				}
-				
-				double score_i = Double.MAX_VALUE;
-				try {
-					score_i = ((QrySop) q_i).getScore(r);
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-				
-				if(score_i < minScore) minScore = score_i;
 			}
 
 			if (matchFound) {
 				docIteratorSetMatchCache (docid_0);
-				this.setScoreCache(minScore);
+				try {
+					this.setScoreCache(this.minScore(r, true));
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
 			}
 		}
 		
 		return true;
 	}
 
+	/**
+	 *  Get the lowest score of the arguments, which all match the
+	 *  current docid.
+	 *  @param r The retrieval model that determines how scores are calculated.
+	 *  @param cached True to use the arguments' score caches.
+	 *  @return The lowest score.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	private double minScore (RetrievalModel r, boolean cached) throws IOException {
+		double minScore = Double.MAX_VALUE;
+
+		for (int i=0; i<this.args.size(); i++) {
+			QrySop q_i = (QrySop) this.args.get(i);
+			double score_i = cached ? q_i.getScore(r) : q_i.getScoreUncached(r);
+			if(score_i < minScore) minScore = score_i;
+		}
+		return minScore;
+	}
+
 	/**
 	 *  An instantiation of docIteratorHasMatch that is true if the
 	 *  query has a document that matches at least one query argument;
@@ -109,55 +117,68 @@ public class QrySopAnd extends QrySop {
 	 */
 	protected boolean docIteratorHasMatchMinScoreIndri (RetrievalModel r) {
 
-		int minDocid = Qry.INVALID_DOCID;
-		int numOfQry = this.args.size();
-		double reversePower = 1.0 / ((double) numOfQry);
-		double scoreCombine = 1;
-
-		if(this.docIteratorHasMatchMin(r)) {
-			minDocid = this.docIteratorGetMatch();
-		} else {
+		if(! this.docIteratorHasMatchMin(r)) {
 			return false;
 		}
-		
+
+		try {
+			this.setScoreCache(this.combineScoresIndri(r, this.docIteratorGetMatch(), true));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return true;
+	}
+
+	/**
+	 *  Combine the scores of the arguments for the current docid as a
+	 *  geometric mean; arguments that don't match it contribute their
+	 *  default scores.
+	 *  @param r The retrieval model that determines how scores are calculated.
+	 *  @param docid The current docid.
+	 *  @param cached True to use the arguments' score caches.
+	 *  @return The combined score.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	private double combineScoresIndri (RetrievalModel r, int docid, boolean cached)
+			throws IOException {
+		double reversePower = 1.0 / ((double) this.args.size());
+		double scoreCombine = 1;
+
 		for (int i=0; i<this.args.size(); i++) {
-			Qry q_i = this.args.get(i);
-
-			if (q_i.docIteratorHasMatch (r)) {
-				int q_iDocid = q_i.docIteratorGetMatch ();
-				double q_iScore = 1.0;
-				
-				//if not the same doc, use default score
-				if(q_iDocid != minDocid) {
-					try {
-						q_iScore = ((QrySop) q_i).getDefaultScore(r, minDocid);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-				} else {
-					//get the score for this term at this doc
-					try {
-						q_iScore = ((QrySop) q_i).getScore(r);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-				}
-				scoreCombine *= Math.pow(q_iScore, reversePower);
+			QrySop q_i = (QrySop) this.args.get(i);
+			double q_iScore;
+
+			//if the argument doesn't match the doc, use default score
+			if(! this.docIteratorArgMatches(i)) {
+				q_iScore = q_i.getDefaultScore(r, docid);
 			} else {
-				double q_iScore = 1.0;
-				try {
-					q_iScore = ((QrySop) q_i).getDefaultScore(r, minDocid);
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-				scoreCombine *= Math.pow(q_iScore, reversePower);
+				q_iScore = cached ? q_i.getScore(r) : q_i.getScoreUncached(r);
 			}
+			scoreCombine *= Math.pow(q_iScore, reversePower);
 		}
-		
-		this.setScoreCache(scoreCombine);
-		return true;
+		return scoreCombine;
 	}
 	
+	/**
+	 *  Get the documents that match every argument.  For the Boolean
+	 *  models this is the intersection of the arguments' bitmaps.
+	 *  @param r The retrieval model that determines what is a match
+	 *  @return The matching documents.
+	 *  @throws IOException Error accessing the Lucene index.
+	 */
+	public DocidBitmap getDocidBitmap (RetrievalModel r) throws IOException {
+		if (! (r instanceof RetrievalModelUnrankedBoolean ||
+				r instanceof RetrievalModelRankedBoolean)) {
+			return super.getDocidBitmap (r);
+		}
+
+		DocidBitmap result = this.args.get(0).getDocidBitmap(r);
+		for (int i=1; i<this.args.size() && result.cardinality() > 0; i++) {
+			result = result.and(this.args.get(i).getDocidBitmap(r));
+		}
+		return result;
+	}
+
 	/**
 	 *  Get a score for the document that docIteratorHasMatch matched.
 	 *  @param r The retrieval model that determines how scores are calculated.
@@ -179,6 +200,25 @@ public class QrySopAnd extends QrySop {
 		}
 	}		
 
+	/**
+	 *  Calculate the score of the matched document for a retrieval model
+	 *  without using score caches.
+	 *  @param r The retrieval model that determines how scores are calculated.
+	 *  @return The document score.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	public double getScoreUncached (RetrievalModel r) throws IOException {
+		if (! this.docIteratorHasMatchCache()) {
+			return 0.0;
+		} else if (r instanceof RetrievalModelUnrankedBoolean) {
+			return 1.0;
+		} else if (r instanceof RetrievalModelIndri) {
+			return this.combineScoresIndri(r, this.docIteratorGetMatch(), false);
+		} else {
+			return this.minScore(r, false);
+		}
+	}
+
 	/**
 	 *  getScore for the UnrankedBoolean retrieval model.
 	 *  @param r The retrieval model that determines how scores are calculated.
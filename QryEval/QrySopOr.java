@@ -38,38 +38,60 @@ public class QrySopOr extends QrySop {
 	 * @throws IOException 
 	 */
 	protected boolean docIteratorHasMatchMinScore(RetrievalModel r) {
-		int minDocid = Qry.INVALID_DOCID;
+
+		//get the min docid if found at least a match
+		if(! this.docIteratorHasMatchMin(r)) {
+			return false;
+		}
+
+		try {
+			this.setScoreCache(this.maxScore(r, true));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return true;
+	}
+
+	/**
+	 *  Get the highest score of the arguments that match the current
+	 *  docid; only they are scored.
+	 *  @param r The retrieval model that determines how scores are calculated.
+	 *  @param cached True to use the arguments' score caches.
+	 *  @return The highest score.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	private double maxScore(RetrievalModel r, boolean cached) throws IOException {
 		double maxScore = 0.0;
 
-		for (int i=0; i<this.args.size(); i++) {
-			Qry q_i = this.args.get(i);
-
-			if (q_i.docIteratorHasMatch (r)) {
-				int q_iDocid = q_i.docIteratorGetMatch ();
-				double q_iScore = maxScore;
-				try {
-					q_iScore = ((QrySop) q_i).getScore(r);
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-
-				if ((minDocid > q_iDocid) ||
-						(minDocid == Qry.INVALID_DOCID) ||
-						(minDocid == q_iDocid && q_iScore > maxScore)) {
-					minDocid = q_iDocid;
-					maxScore = q_iScore;
-				}
+		for (int i=0; i<this.docIteratorNumOfMatchedArgs(); i++) {
+			QrySop q_i = (QrySop) this.args.get(this.docIteratorMatchedArg(i));
+			double q_iScore = cached ? q_i.getScore(r) : q_i.getScoreUncached(r);
+
+			if (i == 0 || q_iScore > maxScore) {
+				maxScore = q_iScore;
 			}
 		}
+		return maxScore;
+	}
 
-		if (minDocid != Qry.INVALID_DOCID) {
-			this.docIteratorSetMatchCache (minDocid);
-			this.setScoreCache(maxScore);
-			return true;
-		} else {
-			return false;
+	/**
+	 *  Get the documents that match at least one argument.  For the
+	 *  Boolean models this is the union of the arguments' bitmaps.
+	 *  @param r The retrieval model that determines what is a match
+	 *  @return The matching documents.
+	 *  @throws IOException Error accessing the Lucene index.
+	 */
+	public DocidBitmap getDocidBitmap (RetrievalModel r) throws IOException {
+		if (! (r instanceof RetrievalModelUnrankedBoolean ||
+				r instanceof RetrievalModelRankedBoolean)) {
+			return super.getDocidBitmap (r);
+		}
+
+		DocidBitmap result = this.args.get(0).getDocidBitmap(r);
+		for (int i=1; i<this.args.size(); i++) {
+			result = result.or(this.args.get(i).getDocidBitmap(r));
 		}
+		return result;
 	}
 
 	/**
@@ -92,6 +114,23 @@ public class QrySopOr extends QrySop {
 		}
 	}
 
+	/**
+	 *  Calculate the score of the matched document for a retrieval model
+	 *  without using score caches.
+	 *  @param r The retrieval model that determines how scores are calculated.
+	 *  @return The document score.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	public double getScoreUncached (RetrievalModel r) throws IOException {
+		if (! this.docIteratorHasMatchCache()) {
+			return 0.0;
+		} else if (r instanceof RetrievalModelUnrankedBoolean) {
+			return 1.0;
+		} else {
+			return this.maxScore(r, false);
+		}
+	}
+
 	/**
 	 *  getScore for the UnrankedBoolean retrieval model.
 	 *  @param r The retrieval model that determines how scores are calculated.
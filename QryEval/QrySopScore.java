@@ -53,7 +53,7 @@ public class QrySopScore extends QrySop {
 				int docid = this.docIteratorGetMatch();
 				
 				try { //set docLen corresponding to docid
-					this.setDocLenCache(Idx.getFieldLength(this.getFieldNameString(), docid));
+					this.setDocLenCache(this.getContext().getFieldLength(this.getFieldNameString(), docid));
 				} catch (IOException e) {
 					// TODO Auto-generated catch block
 					e.printStackTrace();
@@ -68,7 +68,7 @@ public class QrySopScore extends QrySop {
 				this.setScoreCache(docPo.tf); //set tf
 				int docid = this.docIteratorGetMatch();
 				try { //set docLen corresponding to docid
-					this.setDocLenCache(Idx.getFieldLength(this.getFieldNameString(), docid));
+					this.setDocLenCache(this.getContext().getFieldLength(this.getFieldNameString(), docid));
 				} catch (IOException e) {
 					e.printStackTrace();
 				}
@@ -80,6 +80,16 @@ public class QrySopScore extends QrySop {
 		}		
 	}
 
+	/**
+	 *  The SCORE operator matches the same documents as its argument.
+	 *  @param r The retrieval model that determines what is a match
+	 *  @return The matching documents.
+	 *  @throws IOException Error accessing the Lucene index.
+	 */
+	public DocidBitmap getDocidBitmap (RetrievalModel r) throws IOException {
+		return this.args.get (0).getDocidBitmap (r);
+	}
+
 	/**
 	 *  Get a score for the document that docIteratorHasMatch matched.
 	 *  @param r The retrieval model that determines how scores are calculated.
@@ -102,6 +112,18 @@ public class QrySopScore extends QrySop {
 		}
 	}
 
+	/**
+	 *  Calculate the score of the matched document for a retrieval model.
+	 *  The SCORE operator only caches the tf and document length, which
+	 *  don't depend on the model's parameters, so this is getScore.
+	 *  @param r The retrieval model that determines how scores are calculated.
+	 *  @return The document score.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	public double getScoreUncached (RetrievalModel r) throws IOException {
+		return this.getScore (r);
+	}
+
 	/**
 	 *  getScore for the Unranked retrieval model.
 	 *  @param r The retrieval model that determines how scores are calculated.
@@ -203,7 +225,7 @@ public class QrySopScore extends QrySop {
 			double docLen = 0.0;
 			
 			try { //set docLen and corpLen
-				docLen = Idx.getFieldLength(fieldName, docid);
+				docLen = this.getContext().getFieldLength(fieldName, docid);
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
@@ -0,0 +1,346 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ *  The SDM (sequential dependence model) operator for the Indri retrieval
+ *  model.  #SDM (t_1 ... t_n) scores documents the same way as
+ *  <pre>
+ *    #WAND (w_u #AND (t_1 ... t_n)
+ *           w_o #AND (#NEAR/1 (t_1 t_2) ... #NEAR/1 (t_n-1 t_n))
+ *           w_w #AND (#WINDOW/k (t_1 t_2) ... #WINDOW/k (t_n-1 t_n)))
+ *  </pre>
+ *  but the inverted list of each term is read from the index once, and
+ *  the unigram, ordered window and unordered window statistics of every
+ *  candidate document are collected in a single pass over those lists
+ *  when the operator is initialized.  The weights and the unordered
+ *  window size are read from the retrieval model.  A bigram that never
+ *  occurs in the collection is left out of its component instead of
+ *  driving the score of every document to 0.
+ */
+public class QrySopSdm extends QrySop {
+
+	/*
+	 *  The statistics of candidate documents are stored in one flat array.
+	 *  Each candidate uses stride ints: the tf of each term, then the
+	 *  ordered window count of each bigram, then the unordered window
+	 *  count of each bigram.
+	 */
+	private int numOfTerms = 0;
+	private int stride = 0;
+	private int numOfCandidates = 0;
+	private int candidateIndex = 0;
+	private int[] candidateDocids = new int[0];
+	private int[] candidateCounts = new int[0];
+
+	private String fieldNameString = "body";
+	private double[] termPC; //p(t|C) for each term
+	private double[] orderedPC; //p(#near/1|C) for each bigram, 0 if it never occurs
+	private double[] unorderedPC; //p(#window/k|C) for each bigram, 0 if it never occurs
+
+	/**
+	 *  Indicates whether the query has a match.
+	 *  @param r The retrieval model that determines what is a match
+	 *  @return True if the query matches, otherwise false.
+	 */
+	public boolean docIteratorHasMatch (RetrievalModel r) {
+		if(r instanceof RetrievalModelIndri) {
+			if(this.candidateIndex >= this.numOfCandidates) {
+				return false;
+			}
+
+			int docid = this.candidateDocids[this.candidateIndex];
+			this.docIteratorSetMatchCache(docid);
+			try {
+				this.setScoreCache(this.scoreCandidate((RetrievalModelIndri) r,
+						docid, this.candidateIndex * this.stride));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return true;
+		} else {
+			throw new IllegalArgumentException
+			(r.getClass().getName() + " doesn't support the SDM operator.");
+		}
+	}
+
+	/**
+	 *  Advance the internal document iterator beyond the specified
+	 *  document.
+	 *  @param docid An internal document id.
+	 */
+	public void docIteratorAdvancePast (int docid) {
+		while(this.candidateIndex < this.numOfCandidates &&
+				this.candidateDocids[this.candidateIndex] <= docid) {
+			this.candidateIndex++;
+		}
+		this.docIteratorSetMatchCache(Qry.INVALID_DOCID);
+	}
+
+	/**
+	 *  Advance the internal document iterator to the specified
+	 *  document, or beyond if it doesn't.
+	 *  @param docid An internal document id.
+	 */
+	public void docIteratorAdvanceTo (int docid) {
+		while(this.candidateIndex < this.numOfCandidates &&
+				this.candidateDocids[this.candidateIndex] < docid) {
+			this.candidateIndex++;
+		}
+		this.docIteratorSetMatchCache(Qry.INVALID_DOCID);
+	}
+
+	/**
+	 *  Get a score for the document that docIteratorHasMatch matched.
+	 *  @param r The retrieval model that determines how scores are calculated.
+	 *  @return The document score.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	public double getScore (RetrievalModel r) throws IOException {
+		if(r instanceof RetrievalModelIndri) {
+			if (! this.docIteratorHasMatchCache()) {
+				return 0.0;
+			} else {
+				return this.getScoreCache();
+			}
+		} else {
+			throw new IllegalArgumentException
+			(r.getClass().getName() + " doesn't support the SDM operator.");
+		}
+	}
+
+	/**
+	 *  Calculate the score of the matched document for a retrieval model
+	 *  without using the score cache.
+	 *  @param r The retrieval model that determines how scores are calculated.
+	 *  @return The document score.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	public double getScoreUncached (RetrievalModel r) throws IOException {
+		if(! (r instanceof RetrievalModelIndri)) {
+			throw new IllegalArgumentException
+			(r.getClass().getName() + " doesn't support the SDM operator.");
+		}
+		if (! this.docIteratorHasMatchCache()) {
+			return 0.0;
+		}
+		return this.scoreCandidate((RetrievalModelIndri) r,
+				this.docIteratorGetMatch(), this.candidateIndex * this.stride);
+	}
+
+	/**
+	 *  getDefaultScore for the Indri retrieval model. None of the terms
+	 *  or windows occur in the document.
+	 *  @param r The retrieval model that determines how scores are calculated.
+	 *  @param docid the corresponding docid for score calculation
+	 *  @return The document score.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	public double getDefaultScore(RetrievalModel r, int docid) throws IOException {
+		if(r instanceof RetrievalModelIndri) {
+			return this.scoreCandidate((RetrievalModelIndri) r, docid, -1);
+		} else {
+			throw new IllegalArgumentException
+			(r.getClass().getName() + " doesn't support the default score.");
+		}
+	}
+
+	/**
+	 *  Initialize the query operator.  The term inverted lists are merged
+	 *  once, and the statistics of each document that contains at least
+	 *  one term are stored for the docIterator.
+	 *  @param r A retrieval model that guides initialization
+	 *  @throws IOException Error accessing the Lucene index.
+	 */
+	public void initialize (RetrievalModel r) throws IOException {
+		if(! (r instanceof RetrievalModelIndri)) {
+			throw new IllegalArgumentException
+			(r.getClass().getName() + " doesn't support the SDM operator.");
+		}
+
+		for (Qry q_i: this.args) {
+			q_i.initialize (r);
+		}
+
+		this.numOfTerms = this.args.size();
+		this.stride = this.numOfTerms + 2 * (this.numOfTerms - 1);
+		this.numOfCandidates = 0;
+		this.candidateIndex = 0;
+		this.candidateDocids = new int[16];
+		this.candidateCounts = new int[16 * this.stride];
+		this.fieldNameString = this.getArg(0).getField();
+
+		int windowSize = ((RetrievalModelIndri) r).getSdmWindowSize();
+		long[] orderedCtf = new long[Math.max(0, this.numOfTerms - 1)];
+		long[] unorderedCtf = new long[Math.max(0, this.numOfTerms - 1)];
+		boolean[] matched = new boolean[this.numOfTerms];
+
+		//each pass of the loop collects the statistics of one document
+		while(true) {
+			int minDocid = Qry.INVALID_DOCID;
+			for(int i = 0; i < this.numOfTerms; i++) {
+				QryIop q_i = this.getArg(i);
+				if(q_i.docIteratorHasMatch(r)) {
+					int q_iDocid = q_i.docIteratorGetMatch();
+					if(minDocid == Qry.INVALID_DOCID || q_iDocid < minDocid)
+						minDocid = q_iDocid;
+				}
+			}
+
+			if(minDocid == Qry.INVALID_DOCID) break;
+
+			int offset = this.appendCandidate(minDocid);
+			for(int i = 0; i < this.numOfTerms; i++) {
+				QryIop q_i = this.getArg(i);
+				matched[i] = q_i.docIteratorHasMatch(r) &&
+						q_i.docIteratorGetMatch() == minDocid;
+				if(matched[i])
+					this.candidateCounts[offset + i] = q_i.docIteratorGetMatchPosting().tf;
+			}
+
+			for(int i = 0; i < this.numOfTerms - 1; i++) {
+				if(! (matched[i] && matched[i + 1])) continue;
+				Vector<Integer> pos_0 = this.getArg(i).docIteratorGetMatchPosting().positions;
+				Vector<Integer> pos_1 = this.getArg(i + 1).docIteratorGetMatchPosting().positions;
+
+				int ordered = countOrderedWindows(pos_0, pos_1, 1);
+				int unordered = countUnorderedWindows(pos_0, pos_1, windowSize);
+				this.candidateCounts[offset + this.numOfTerms + i] = ordered;
+				this.candidateCounts[offset + 2 * this.numOfTerms - 1 + i] = unordered;
+				orderedCtf[i] += ordered;
+				unorderedCtf[i] += unordered;
+			}
+
+			for(int i = 0; i < this.numOfTerms; i++) {
+				if(matched[i]) this.getArg(i).docIteratorAdvancePast(minDocid);
+			}
+		}
+
+		//collection probabilities of terms and windows
+		double corpLen = (double) Idx.getSumOfFieldLengths(this.fieldNameString);
+		this.termPC = new double[this.numOfTerms];
+		for(int i = 0; i < this.numOfTerms; i++) {
+			this.termPC[i] = this.getArg(i).getCtf() / corpLen;
+		}
+		this.orderedPC = new double[orderedCtf.length];
+		this.unorderedPC = new double[unorderedCtf.length];
+		for(int i = 0; i < orderedCtf.length; i++) {
+			this.orderedPC[i] = orderedCtf[i] / corpLen;
+			this.unorderedPC[i] = unorderedCtf[i] / corpLen;
+		}
+	}
+
+	/**
+	 *  Calculate the SDM score of a document.
+	 *  @param r The Indri retrieval model.
+	 *  @param docid The internal document id.
+	 *  @param offset The offset of the document statistics in candidateCounts,
+	 *  or -1 if the document contains none of the terms.
+	 *  @return The document score.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	private double scoreCandidate(RetrievalModelIndri r, int docid, int offset)
+			throws IOException {
+		double mu = r.getMu();
+		double lambda = r.getLambda();
+		double docLen = this.getContext().getFieldLength(this.fieldNameString, docid);
+
+		double totalWeight = r.getSdmUnigramWeight();
+		double scoreCombine = Math.pow(this.scoreComponent(this.termPC,
+				false, offset, 0, mu, lambda, docLen), r.getSdmUnigramWeight());
+
+		if(this.hasActive(this.orderedPC)) {
+			totalWeight += r.getSdmOrderedWeight();
+			scoreCombine *= Math.pow(this.scoreComponent(this.orderedPC, true, offset,
+					this.numOfTerms, mu, lambda, docLen), r.getSdmOrderedWeight());
+		}
+		if(this.hasActive(this.unorderedPC)) {
+			totalWeight += r.getSdmUnorderedWeight();
+			scoreCombine *= Math.pow(this.scoreComponent(this.unorderedPC, true, offset,
+					2 * this.numOfTerms - 1, mu, lambda, docLen), r.getSdmUnorderedWeight());
+		}
+		return Math.pow(scoreCombine, 1.0 / totalWeight);
+	}
+
+	/**
+	 *  Calculate the Indri #AND score of one SDM component.  If skipUnseen
+	 *  is set, entries whose collection probability is 0 are skipped.
+	 */
+	private double scoreComponent(double[] pC, boolean skipUnseen, int offset,
+			int base, double mu, double lambda, double docLen) {
+		int active = 0;
+		for(int i = 0; i < pC.length; i++) {
+			if(pC[i] > 0 || ! skipUnseen) active++;
+		}
+
+		double reversePower = 1.0 / ((double) active);
+		double score = 1.0;
+		for(int i = 0; i < pC.length; i++) {
+			if(pC[i] == 0 && skipUnseen) continue;
+			double tf = (offset < 0) ? 0 : this.candidateCounts[offset + base + i];
+			double p = (1 - lambda) * (tf + mu * pC[i]) / (docLen + mu) + lambda * pC[i];
+			score *= Math.pow(p, reversePower);
+		}
+		return score;
+	}
+
+	//check if at least one window of the component occurs in the collection
+	private boolean hasActive(double[] pC) {
+		for(double p : pC) {
+			if(p > 0) return true;
+		}
+		return false;
+	}
+
+	//add an empty candidate for docid and return the offset of its statistics
+	private int appendCandidate(int docid) {
+		if(this.numOfCandidates == this.candidateDocids.length) {
+			this.candidateDocids = Arrays.copyOf(this.candidateDocids,
+					2 * this.numOfCandidates);
+			this.candidateCounts = Arrays.copyOf(this.candidateCounts,
+					2 * this.numOfCandidates * this.stride);
+		}
+		this.candidateDocids[this.numOfCandidates] = docid;
+		return (this.numOfCandidates++) * this.stride;
+	}
+
+	/**
+	 *  Count the matches of #NEAR/n (t_0 t_1) in one document, with the
+	 *  same semantics as QryIopNear.
+	 */
+	static int countOrderedWindows(Vector<Integer> pos_0, Vector<Integer> pos_1, int n) {
+		int cnt = 0;
+		int j = 0;
+		for(int i = 0; i < pos_0.size(); i++) {
+			int loc_0 = pos_0.get(i);
+			while(j < pos_1.size() && pos_1.get(j) <= loc_0) j++;
+			if(j == pos_1.size()) break;
+			if(pos_1.get(j) - loc_0 <= n) cnt++;
+		}
+		return cnt;
+	}
+
+	/**
+	 *  Count the matches of #WINDOW/n (t_0 t_1) in one document, with the
+	 *  same semantics as QryIopWindow.
+	 */
+	static int countUnorderedWindows(Vector<Integer> pos_0, Vector<Integer> pos_1, int n) {
+		int cnt = 0;
+		int i = 0;
+		int j = 0;
+		while(i < pos_0.size() && j < pos_1.size()) {
+			int loc_0 = pos_0.get(i);
+			int loc_1 = pos_1.get(j);
+			if(Math.abs(loc_1 - loc_0) <= n) {
+				cnt++;
+				i++;
+				j++;
+			} else if(loc_0 > loc_1) {
+				j++;
+			} else {
+				i++;
+			}
+		}
+		return cnt;
+	}
+}
@@ -20,41 +20,37 @@ public class QrySopSum extends QrySop {
 	}
 	
 	public boolean docIteratorHasMatchMinSumScore(RetrievalModel r) {
-		int minDocid = Qry.INVALID_DOCID;
-		double scoreSum = 0.0; //sum of scores for all child score lists
 
 		//get the min docid if found at least a match
-		if(this.docIteratorHasMatchMin(r)) {
-			minDocid = this.docIteratorGetMatch();
-		} else {
+		if(! this.docIteratorHasMatchMin(r)) {
 			return false;
 		}
 
-		for (int i=0; i<this.args.size(); i++) {
-			Qry q_i = this.args.get(i);
-
-			if (q_i.docIteratorHasMatch (r)) {
-				int q_iDocid = q_i.docIteratorGetMatch ();
-				
-				//if not the same doc, skip this one
-				if(q_iDocid != minDocid) continue; 
-				
-				//get the score (term frequency) for this term at this doc
-				double q_iScore = 0.0;
-				try {
-					q_iScore = ((QrySop) q_i).getScore(r);
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-				
-				scoreSum += q_iScore;
-			}
+		try {
+			this.setScoreCache(this.sumScores(r, true));
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
-		
-		this.setScoreCache(scoreSum);
 		return true;
 	}
-	
+
+	/**
+	 *  Sum the scores of the arguments that match the current docid;
+	 *  only they contribute.
+	 *  @param r The retrieval model that determines how scores are calculated.
+	 *  @param cached True to use the arguments' score caches.
+	 *  @return The sum of the scores.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	private double sumScores(RetrievalModel r, boolean cached) throws IOException {
+		double scoreSum = 0.0; //sum of scores for all child score lists
+
+		for (int i=0; i<this.docIteratorNumOfMatchedArgs(); i++) {
+			QrySop q_i = (QrySop) this.args.get(this.docIteratorMatchedArg(i));
+			scoreSum += cached ? q_i.getScore(r) : q_i.getScoreUncached(r);
+		}
+		return scoreSum;
+	}
 	
 	/**
 	 *  Get a score for the document that docIteratorHasMatch matched.
@@ -72,6 +68,24 @@ public class QrySopSum extends QrySop {
 		}
 	}
 	
+	/**
+	 *  Calculate the score of the matched document for a retrieval model
+	 *  without using score caches.
+	 *  @param r The retrieval model that determines how scores are calculated.
+	 *  @return The document score.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	public double getScoreUncached (RetrievalModel r) throws IOException {
+		if (! (r instanceof RetrievalModelBM25)) {
+			throw new IllegalArgumentException
+			(r.getClass().getName() + " doesn't support the OR operator.");
+		}
+		if (! this.docIteratorHasMatchCache()) {
+			return 0.0;
+		}
+		return this.sumScores(r, false);
+	}
+	
 	/**
 	 *  getScore for the BM25 retrieval model.
 	 *  @param r The retrieval model that determines how scores are calculated.
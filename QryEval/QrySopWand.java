@@ -27,56 +27,66 @@ public class QrySopWand extends QrySop {
 	 */
 	protected boolean docIteratorHasMatchMinWeightedScoreIndri (RetrievalModel r) {
 
-		int minDocid = Qry.INVALID_DOCID;
+		if(! this.docIteratorHasMatchMin(r)) {
+			return false;
+		}
+
+		try {
+			this.setScoreCache(this.combineScores(r, this.docIteratorGetMatch(), true));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return true;
+	}
+
+	/**
+	 *  Combine the weighted scores of the arguments for the current docid;
+	 *  arguments that don't match it contribute their default scores.
+	 *  @param r The retrieval model that determines how scores are calculated.
+	 *  @param docid The current docid.
+	 *  @param cached True to use the arguments' score caches.
+	 *  @return The combined score.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	private double combineScores (RetrievalModel r, int docid, boolean cached)
+			throws IOException {
 		double totalWeight = 0;
 		double scoreCombine = 1;
 
-		if(this.docIteratorHasMatchMin(r)) {
-			minDocid = this.docIteratorGetMatch();
-		} else {
-			return false;
-		}
-		
 		for (int i=0; i<this.args.size(); i++) {
-			Qry q_i = this.args.get(i);
+			QrySop q_i = (QrySop) this.args.get(i);
+			double q_iScore;
 
-			if (q_i.docIteratorHasMatch(r)) {
-				int q_iDocid = q_i.docIteratorGetMatch ();
-				double q_iScore = 1.0;
-				
-				//if not the same doc, use default score
-				if(q_iDocid != minDocid) {
-					try {
-						q_iScore = ((QrySop) q_i).getDefaultScore(r, minDocid);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-				} else {
-					//get the score for this term at this doc
-					try {
-						q_iScore = ((QrySop) q_i).getScore(r);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-				}
-				totalWeight += q_i.getWeight();
-				scoreCombine *= Math.pow(q_iScore, q_i.getWeight());
+			//if the argument doesn't match the doc, use default score
+			if(! this.docIteratorArgMatches(i)) {
+				q_iScore = q_i.getDefaultScore(r, docid);
 			} else {
-				double q_iScore = 1.0;
-				try {
-					q_iScore = ((QrySop) q_i).getDefaultScore(r, minDocid);
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-				totalWeight += q_i.getWeight();
-				scoreCombine *= Math.pow(q_iScore, q_i.getWeight());
+				q_iScore = cached ? q_i.getScore(r) : q_i.getScoreUncached(r);
 			}
+			totalWeight += q_i.getWeight();
+			scoreCombine *= Math.pow(q_iScore, q_i.getWeight());
 		}
 		scoreCombine = Math.pow(scoreCombine, 1.0 / totalWeight);
-		this.setScoreCache(scoreCombine);
-		return true;
+		return scoreCombine;
 	}
 	
+	/**
+	 *  Calculate the score of the matched document for a retrieval model
+	 *  without using score caches.
+	 *  @param r The retrieval model that determines how scores are calculated.
+	 *  @return The document score.
+	 *  @throws IOException Error accessing the Lucene index
+	 */
+	public double getScoreUncached (RetrievalModel r) throws IOException {
+		if(! (r instanceof RetrievalModelIndri)) {
+			throw new IllegalArgumentException
+			(r.getClass().getName() + " doesn't support the OR operator.");
+		}
+		if (! this.docIteratorHasMatchCache()) {
+			return 0.0;
+		}
+		return this.combineScores(r, this.docIteratorGetMatch(), false);
+	}
 	
 	/**
 	 *  Get a score for the document that docIteratorHasMatch matched.
@@ -0,0 +1,64 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ *  The root class of the learning to rank models.  A ranker scores the
+ *  feature vector of a <query, document> pair; documents are reranked by
+ *  the score.  Rankers are loaded from model files, so a model that was
+ *  trained earlier, in-process or by an external tool, can be reused.
+ */
+public abstract class Ranker {
+
+	/**
+	 *  Score a feature vector.
+	 *  @param fvector The features, in the order of the FeatureRegistry.
+	 *  @return The score; higher scores rank first.
+	 */
+	public abstract double score(double[] fvector);
+
+	/**
+	 *  Write the model to a file that load can read.
+	 *  @param modelFile The path of the model file.
+	 *  @throws IOException Error writing the file.
+	 */
+	public abstract void write(String modelFile) throws IOException;
+
+	/**
+	 *  Score each pair of a feature matrix.
+	 *  @param matrix The feature vectors.
+	 *  @return The score of each pair.
+	 */
+	public double[] score(FeatureMatrix matrix) {
+		double[] scores = new double[matrix.size()];
+		double[] row = null;
+		for (int p = 0; p < scores.length; p++) {
+			row = matrix.getRow(p, row);
+			scores[p] = this.score(row);
+		}
+		return scores;
+	}
+
+	/**
+	 *  Load a model file.  The type of the model is recognized from the
+	 *  first line of the file.
+	 *  @param modelFile The path of the model file.
+	 *  @return The ranker.
+	 *  @throws IllegalArgumentException The model type is not supported.
+	 *  @throws IOException Error reading the file.
+	 */
+	public static Ranker load(String modelFile) throws IOException {
+		BufferedReader input = new BufferedReader(new FileReader(modelFile));
+		try {
+			String header = input.readLine();
+			if (header != null && header.startsWith(RankerLinear.HEADER))
+				return RankerLinear.read(input, modelFile);
+			if (header != null && header.startsWith(RankerLambdaMart.HEADER))
+				return RankerLambdaMart.read(input, modelFile);
+
+			throw new IllegalArgumentException(
+					"Error:  Unsupported learning to rank model " + modelFile);
+		} finally {
+			input.close();
+		}
+	}
+}
@@ -0,0 +1,408 @@
+import java.io.*;
+import java.util.*;
+import java.util.regex.*;
+
+/**
+ *  An ensemble of regression trees, e.g. a LambdaMART model.  The score
+ *  of a feature vector is the weighted sum of the output of the leaf it
+ *  reaches in each tree; at a split, x[feature] <= threshold goes left.
+ *  Models are read from and written to files in RankLib's LambdaMART
+ *  format, so they can be exchanged with RankLib.
+ *  <p>
+ *  The trees are flattened into parallel arrays in preorder, so the left
+ *  child of node i is node i+1 and only the right child is stored, and
+ *  a leaf keeps its output where a split keeps its threshold.
+ *  </p>
+ *  <p>
+ *  When no tree has more than 64 leaves, documents are scored with
+ *  QuickScorer (Lucchese et al., 2015) instead of walking the trees: the
+ *  splits of all trees are sorted by feature and threshold, and each
+ *  split a document fails clears the leaves of its left subtree from a
+ *  bitvector of its tree.  The exit leaf of a tree is the leftmost leaf
+ *  that is left.  The splits are scanned in order without unpredictable
+ *  branches, and the scan of a feature stops at the first split that
+ *  the document passes.  Larger trees are walked one tree at a time for
+ *  a list of documents, which keeps the tree's nodes in the cache.
+ *  </p>
+ */
+public class RankerLambdaMart extends Ranker {
+
+	//  --------------- Constants and variables ---------------------
+
+	/**
+	 *  The first line of a RankLib LambdaMART model file.
+	 */
+	public static final String HEADER = "## LambdaMART";
+
+	private static final Pattern TAG = Pattern.compile("<(/?)(\\w+)([^>]*)>");
+	private static final Pattern WEIGHT = Pattern.compile("weight\\s*=\\s*\"([^\"]*)\"");
+
+	/**
+	 *  A node of a tree that is being built or read.  A node with a
+	 *  feature of -1 is a leaf.
+	 */
+	public static class Node {
+		public int feature = -1;	// 0-based, in the order of the FeatureRegistry
+		public double threshold;
+		public double output;
+		public Node left;
+		public Node right;
+	}
+
+	private int[] roots;		// the first node of each tree
+	private double[] weights;	// the weight of each tree
+	private int[] feature;		// the feature of each split, or -1 for a leaf
+	private double[] value;		// the threshold of a split, or the output of a leaf
+	private int[] right;		// the right child of a split
+	private int numOfFeatures;	// the highest feature index used, plus 1
+
+	//  QuickScorer, or null if a tree has more than 64 leaves
+	private int[] splitStart;		// the first split of each feature, then the number of splits
+	private double[] splitThreshold;	// the splits, by feature, then threshold
+	private int[] splitTree;
+	private long[] splitMask;		// clears the leaves of the split's left subtree
+	private int[] leafStart;		// the first leaf of each tree
+	private double[] leafOutput;	// the leaves of each tree, from left to right
+
+	//  --------------- Methods ---------------------------------------
+
+	/**
+	 *  @param trees The root of each tree.
+	 *  @param weights The weight of each tree, e.g. the learning rate.
+	 */
+	public RankerLambdaMart(List<Node> trees, double[] weights) {
+		int size = 0;
+		for (Node root : trees)
+			size += count(root);
+
+		this.roots = new int[trees.size()];
+		this.weights = weights.clone();
+		this.feature = new int[size];
+		this.value = new double[size];
+		this.right = new int[size];
+
+		int next = 0;
+		for (int t = 0; t < trees.size(); t++) {
+			this.roots[t] = next;
+			next = this.flatten(trees.get(t), next);
+		}
+
+		this.buildQuickScorer();
+	}
+
+	private static int count(Node node) {
+		return (node.feature < 0) ? 1 : 1 + count(node.left) + count(node.right);
+	}
+
+	// store the subtree in preorder from index i, and return the next free index
+	private int flatten(Node node, int i) {
+		this.feature[i] = node.feature;
+		if (node.feature < 0) {
+			this.value[i] = node.output;
+			return i + 1;
+		}
+
+		this.numOfFeatures = Math.max(this.numOfFeatures, node.feature + 1);
+		this.value[i] = node.threshold;
+		int next = this.flatten(node.left, i + 1);
+		this.right[i] = next;
+		return this.flatten(node.right, next);
+	}
+
+	/**
+	 *  Build the QuickScorer tables from the flattened trees.
+	 */
+	private void buildQuickScorer() {
+		int numOfLeaves = 0;
+		for (int i = 0; i < this.feature.length; i++) {
+			if (this.feature[i] < 0)
+				numOfLeaves++;
+		}
+
+		this.leafStart = new int[this.roots.length];
+		this.leafOutput = new double[numOfLeaves];
+		List<List<Integer>> splits = new ArrayList<List<Integer>>();
+		for (int f = 0; f < this.numOfFeatures; f++)
+			splits.add(new ArrayList<Integer>());
+		long[] masks = new long[this.feature.length];
+
+		int[] nextLeaf = { 0 };
+		for (int t = 0; t < this.roots.length; t++) {
+			this.leafStart[t] = nextLeaf[0];
+			this.collectSplits(this.roots[t], t, nextLeaf, splits, masks);
+			if (nextLeaf[0] - this.leafStart[t] > Long.SIZE) {
+				this.leafStart = null;
+				this.leafOutput = null;
+				return;
+			}
+		}
+
+		//  Sort each feature's splits by threshold, and remember the tree
+		//  of each split.
+
+		int[] treeOf = new int[this.feature.length];
+		for (int t = 0; t < this.roots.length; t++) {
+			int end = (t + 1 < this.roots.length) ? this.roots[t + 1] : this.feature.length;
+			Arrays.fill(treeOf, this.roots[t], end, t);
+		}
+
+		this.splitStart = new int[this.numOfFeatures + 1];
+		this.splitThreshold = new double[this.feature.length - numOfLeaves];
+		this.splitTree = new int[this.splitThreshold.length];
+		this.splitMask = new long[this.splitThreshold.length];
+		int n = 0;
+		for (int f = 0; f < this.numOfFeatures; f++) {
+			this.splitStart[f] = n;
+			Integer[] nodes = splits.get(f).toArray(new Integer[0]);
+			Arrays.sort(nodes, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					int c = Double.compare(value[a], value[b]);
+					return (c != 0) ? c : a.compareTo(b);
+				}
+			});
+			for (int i : nodes) {
+				this.splitThreshold[n] = this.value[i];
+				this.splitTree[n] = treeOf[i];
+				this.splitMask[n] = masks[i];
+				n++;
+			}
+		}
+		this.splitStart[this.numOfFeatures] = n;
+	}
+
+	// number the leaves of the subtree at node i from left to right, and
+	// find the mask of each split; return the next node of the tree
+	private int collectSplits(int i, int t, int[] nextLeaf,
+			List<List<Integer>> splits, long[] masks) {
+
+		if (this.feature[i] < 0) {
+			this.leafOutput[nextLeaf[0]++] = this.value[i];
+			return i + 1;
+		}
+
+		int first = nextLeaf[0] - this.leafStart[t];
+		int next = this.collectSplits(i + 1, t, nextLeaf, splits, masks);
+		int last = nextLeaf[0] - this.leafStart[t];
+		if (last < Long.SIZE) {
+			masks[i] = ~(((1L << last) - 1) ^ ((1L << first) - 1));
+			splits.get(this.feature[i]).add(i);
+		}
+		return this.collectSplits(next, t, nextLeaf, splits, masks);
+	}
+
+	/**
+	 *  Read the rest of a RankLib LambdaMART model file after its header
+	 *  line.  The "##" comment lines are skipped.
+	 */
+	static RankerLambdaMart read(BufferedReader input, String modelFile)
+			throws IOException {
+
+		StringBuilder xml = new StringBuilder();
+		String line = null;
+		while ((line = input.readLine()) != null) {
+			if (!line.trim().startsWith("##"))
+				xml.append(line).append('\n');
+		}
+
+		//  Split the model into tags and the text values between them.
+
+		List<String> tokens = new ArrayList<String>();
+		Matcher m = TAG.matcher(xml);
+		int end = 0;
+		while (m.find()) {
+			String text = xml.substring(end, m.start()).trim();
+			if (text.length() > 0)
+				tokens.add(text);
+			tokens.add(m.group());
+			end = m.end();
+		}
+
+		List<Node> trees = new ArrayList<Node>();
+		List<Double> weights = new ArrayList<Double>();
+		try {
+			int[] next = { 0 };
+			expect(tokens, next, "<ensemble");
+			while (!tokens.get(next[0]).startsWith("</ensemble")) {
+				String tree = tokens.get(next[0]);
+				expect(tokens, next, "<tree");
+				Matcher weight = WEIGHT.matcher(tree);
+				weights.add(weight.find() ? Double.parseDouble(weight.group(1)) : 1.0);
+				trees.add(readNode(tokens, next));
+				expect(tokens, next, "</tree");
+			}
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException(
+					"Error:  " + modelFile + " is not a valid LambdaMART model.", e);
+		}
+
+		double[] w = new double[weights.size()];
+		for (int i = 0; i < w.length; i++)
+			w[i] = weights.get(i);
+		return new RankerLambdaMart(trees, w);
+	}
+
+	// <split> ( <output> v </output> | <feature> f </feature>
+	//   <threshold> t </threshold> split split ) </split>
+	private static Node readNode(List<String> tokens, int[] next) {
+		Node node = new Node();
+		expect(tokens, next, "<split");
+		if (tokens.get(next[0]).startsWith("<output")) {
+			next[0]++;
+			node.output = Double.parseDouble(tokens.get(next[0]++));
+			expect(tokens, next, "</output");
+		} else {
+			expect(tokens, next, "<feature");
+			node.feature = Integer.parseInt(tokens.get(next[0]++)) - 1;
+			expect(tokens, next, "</feature");
+			expect(tokens, next, "<threshold");
+			node.threshold = Double.parseDouble(tokens.get(next[0]++));
+			expect(tokens, next, "</threshold");
+			node.left = readNode(tokens, next);
+			node.right = readNode(tokens, next);
+		}
+		expect(tokens, next, "</split");
+		return node;
+	}
+
+	private static void expect(List<String> tokens, int[] next, String tag) {
+		String token = tokens.get(next[0]++);
+		if (!token.startsWith(tag))
+			throw new IllegalArgumentException("Expected " + tag + "> but found " + token);
+	}
+
+	/**
+	 *  Score a feature vector.
+	 *  @param fvector The features, in the order of the FeatureRegistry.
+	 *  @return The weighted sum of the outputs of the trees.
+	 */
+	public double score(double[] fvector) {
+		double[] x = this.pad(fvector);
+		if (this.leafOutput != null)
+			return this.quickScore(x, new long[this.roots.length]);
+
+		double score = 0;
+		for (int t = 0; t < this.roots.length; t++)
+			score += this.weights[t] * this.value[this.leaf(this.roots[t], x)];
+		return score;
+	}
+
+	/**
+	 *  Score each pair of a feature matrix.
+	 *  @param matrix The feature vectors.
+	 *  @return The score of each pair.
+	 */
+	public double[] score(FeatureMatrix matrix) {
+		double[][] x = new double[matrix.size()][];
+		for (int d = 0; d < x.length; d++)
+			x[d] = matrix.getRow(d, null);
+		return this.score(x);
+	}
+
+	/**
+	 *  Score feature vectors, with QuickScorer or one tree at a time.
+	 *  @param fvectors The features of each document, in the order of the
+	 *  FeatureRegistry.
+	 *  @return The score of each document.
+	 */
+	public double[] score(double[][] fvectors) {
+		double[][] x = new double[fvectors.length][];
+		for (int d = 0; d < x.length; d++)
+			x[d] = this.pad(fvectors[d]);
+
+		double[] scores = new double[x.length];
+		if (this.leafOutput != null) {
+			long[] leaves = new long[this.roots.length];
+			for (int d = 0; d < x.length; d++)
+				scores[d] = this.quickScore(x[d], leaves);
+			return scores;
+		}
+
+		for (int t = 0; t < this.roots.length; t++) {
+			int root = this.roots[t];
+			double weight = this.weights[t];
+			for (int d = 0; d < x.length; d++)
+				scores[d] += weight * this.value[this.leaf(root, x[d])];
+		}
+		return scores;
+	}
+
+	// the leaf that x reaches from node i
+	private int leaf(int i, double[] x) {
+		while (this.feature[i] >= 0)
+			i = (x[this.feature[i]] <= this.value[i]) ? i + 1 : this.right[i];
+		return i;
+	}
+
+	// leaves is a work area of one bitvector per tree
+	private double quickScore(double[] x, long[] leaves) {
+		Arrays.fill(leaves, -1L);
+		for (int f = 0; f < this.numOfFeatures; f++) {
+			double v = x[f];
+			int end = this.splitStart[f + 1];
+
+			// !(v <= threshold) also sends NaN right, as the tree walk does
+			for (int i = this.splitStart[f]; i < end && !(v <= this.splitThreshold[i]); i++)
+				leaves[this.splitTree[i]] &= this.splitMask[i];
+		}
+
+		double score = 0;
+		for (int t = 0; t < leaves.length; t++) {
+			score += this.weights[t]
+					* this.leafOutput[this.leafStart[t] + Long.numberOfTrailingZeros(leaves[t])];
+		}
+		return score;
+	}
+
+	// features the vector doesn't have are 0
+	private double[] pad(double[] fvector) {
+		return (fvector.length >= this.numOfFeatures) ?
+				fvector : Arrays.copyOf(fvector, this.numOfFeatures);
+	}
+
+	/**
+	 *  Write the model in RankLib's LambdaMART format.
+	 *  @param modelFile The path of the model file.
+	 *  @throws IOException Error writing the file.
+	 */
+	public void write(String modelFile) throws IOException {
+		PrintWriter output = new PrintWriter(modelFile, "UTF-8");
+		try {
+			output.println(HEADER);
+			output.println("## No. of trees = " + this.roots.length);
+			output.println();
+			output.println("<ensemble>");
+			for (int t = 0; t < this.roots.length; t++) {
+				output.println("\t<tree id=\"" + (t + 1) + "\" weight=\""
+						+ Double.toString(this.weights[t]) + "\">");
+				this.writeNode(output, this.roots[t], "\t\t", "");
+				output.println("\t</tree>");
+			}
+			output.println("</ensemble>");
+		} finally {
+			output.close();
+		}
+	}
+
+	private int writeNode(PrintWriter output, int i, String indent, String position) {
+		output.println(indent + "<split" + position + ">");
+		if (this.feature[i] < 0) {
+			output.println(indent + "\t<output> " + Double.toString(this.value[i]) + " </output>");
+			output.println(indent + "</split>");
+			return i + 1;
+		}
+
+		output.println(indent + "\t<feature> " + (this.feature[i] + 1) + " </feature>");
+		output.println(indent + "\t<threshold> " + Double.toString(this.value[i]) + " </threshold>");
+		this.writeNode(output, i + 1, indent + "\t", " pos=\"left\"");
+		int next = this.writeNode(output, this.right[i], indent + "\t", " pos=\"right\"");
+		output.println(indent + "</split>");
+		return next;
+	}
+
+	/**
+	 *  @return The number of trees.
+	 */
+	public int getNumOfTrees() {
+		return this.roots.length;
+	}
+}
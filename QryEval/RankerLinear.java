@@ -0,0 +1,161 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ *  A linear ranker, e.g. a model trained by svm_rank_learn.  The score
+ *  of a feature vector x is w.x - b, which is what svm_rank_classify
+ *  computes for a model with a linear kernel.  Models are read from and
+ *  written to files in the SVM-light format, so they can be exchanged
+ *  with the svm_rank tools.
+ */
+public class RankerLinear extends Ranker {
+
+	//  --------------- Constants and variables ---------------------
+
+	/**
+	 *  The first line of an SVM-light model file.
+	 */
+	public static final String HEADER = "SVM-light Version";
+
+	private double[] weights;	// weights[i] is the weight of feature i+1
+	private double threshold;
+
+	//  --------------- Methods ---------------------------------------
+
+	/**
+	 *  @param weights The weight of each feature, in the order of the
+	 *  FeatureRegistry.
+	 *  @param threshold The threshold b that is subtracted from scores.
+	 */
+	public RankerLinear(double[] weights, double threshold) {
+		this.weights = weights.clone();
+		this.threshold = threshold;
+	}
+
+	/**
+	 *  Read the rest of an SVM-light model file after its header line.
+	 *  The support vectors of a linear model are folded into a single
+	 *  weight vector.
+	 */
+	static RankerLinear read(BufferedReader input, String modelFile)
+			throws IOException {
+
+		double[] weights = new double[0];
+		double threshold = 0;
+		boolean inSupportVectors = false;
+		String line = null;
+
+		while ((line = input.readLine()) != null) {
+			int comment = line.indexOf('#');
+			String value = ((comment < 0) ? line : line.substring(0, comment)).trim();
+			String description = (comment < 0) ? "" : line.substring(comment + 1).trim();
+
+			if (inSupportVectors) {
+				if (value.length() == 0)
+					continue;
+
+				// "alpha*y index:value index:value ..."
+				String[] tokens = value.split("\\s+");
+				double alphaY = Double.parseDouble(tokens[0]);
+				for (int i = 1; i < tokens.length; i++) {
+					int colon = tokens[i].indexOf(':');
+					int index = Integer.parseInt(tokens[i].substring(0, colon));
+					if (index > weights.length)
+						weights = Arrays.copyOf(weights, index);
+					weights[index - 1] += alphaY * Double.parseDouble(tokens[i].substring(colon + 1));
+				}
+			} else if (description.startsWith("kernel type")) {
+				if (Integer.parseInt(value) != 0) {
+					throw new IllegalArgumentException(
+							"Error:  " + modelFile + " is not a linear model.");
+				}
+			} else if (description.startsWith("threshold b")) {
+				threshold = Double.parseDouble(value);
+				inSupportVectors = true;
+			}
+		}
+
+		if (!inSupportVectors) {
+			throw new IllegalArgumentException(
+					"Error:  " + modelFile + " has no threshold or support vectors.");
+		}
+		return new RankerLinear(weights, threshold);
+	}
+
+	/**
+	 *  Score a feature vector.
+	 *  @param fvector The features, in the order of the FeatureRegistry.
+	 *  @return w.x - b.
+	 */
+	public double score(double[] fvector) {
+		double score = 0;
+		int n = Math.min(fvector.length, this.weights.length);
+		for (int i = 0; i < n; i++)
+			score += this.weights[i] * fvector[i];
+		return score - this.threshold;
+	}
+
+	/**
+	 *  Score each pair of a feature matrix, one feature column at a time.
+	 *  @param matrix The feature vectors.
+	 *  @return w.x - b of each pair.
+	 */
+	public double[] score(FeatureMatrix matrix) {
+		double[] scores = new double[matrix.size()];
+		int n = Math.min(matrix.getNumOfFeatures(), this.weights.length);
+		for (int f = 0; f < n; f++) {
+			double w = this.weights[f];
+			float[] column = matrix.getColumn(f);
+			for (int p = 0; p < scores.length; p++)
+				scores[p] += w * column[p];
+		}
+		for (int p = 0; p < scores.length; p++)
+			scores[p] -= this.threshold;
+		return scores;
+	}
+
+	/**
+	 *  Write the model as a linear SVM-light model with one support
+	 *  vector, which svm_rank_classify can also read.
+	 *  @param modelFile The path of the model file.
+	 *  @throws IOException Error writing the file.
+	 */
+	public void write(String modelFile) throws IOException {
+		PrintWriter output = new PrintWriter(modelFile, "UTF-8");
+		try {
+			output.println(HEADER + " V6.20");
+			output.println("0 # kernel type");
+			output.println("3 # kernel parameter -d");
+			output.println("1 # kernel parameter -g");
+			output.println("1 # kernel parameter -s");
+			output.println("1 # kernel parameter -r");
+			output.println("empty# kernel parameter -u");
+			output.println(this.weights.length + " # highest feature index");
+			output.println("0 # number of training documents");
+			output.println("2 # number of support vectors plus 1");
+			output.println(Double.toString(this.threshold)
+					+ " # threshold b, each following line is a SV (starting with alpha*y)");
+
+			StringBuilder sv = new StringBuilder("1");
+			for (int i = 0; i < this.weights.length; i++) {
+				if (this.weights[i] != 0)
+					sv.append(' ').append(i + 1).append(':').append(Double.toString(this.weights[i]));
+			}
+			sv.append(" #");
+			output.println(sv);
+		} finally {
+			output.close();
+		}
+	}
+
+	/**
+	 *  @return A copy of the weight of each feature.
+	 */
+	public double[] getWeights() {
+		return this.weights.clone();
+	}
+
+	public double getThreshold() {
+		return this.threshold;
+	}
+}
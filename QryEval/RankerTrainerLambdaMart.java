@@ -0,0 +1,379 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  Trains a RankerLambdaMart with LambdaMART (Burges, 2010): each
+ *  iteration computes the lambda gradient of every document from the
+ *  NDCG@10 change of swapping it with each differently relevant document
+ *  of its query, fits a regression tree to the lambdas, and sets each
+ *  leaf to a Newton step.
+ *  <p>
+ *  Feature values are bucketed once into at most numOfThresholds
+ *  candidate thresholds, so a split is found from per-bucket histograms.
+ *  Trees grow best first up to numOfLeaves leaves.  The lambdas of the
+ *  queries, and the histograms of the features, are computed on several
+ *  threads; ties always go to the lower feature and threshold, so
+ *  training is deterministic.
+ *  </p>
+ */
+public class RankerTrainerLambdaMart {
+
+	//  --------------- Constants and variables ---------------------
+
+	private static final int NDCG_CUTOFF = 10;
+
+	private final int numOfTrees;
+	private final int numOfLeaves;
+	private final double learningRate;
+	private final int minLeafSupport;
+	private final int numOfThresholds;
+	private final int numOfThreads;
+
+	private int numOfDocs;
+	private int[] relevance;
+	private int[] queryStart;		// the first document of each query, then numOfDocs
+	private double[][] thresholds;	// the candidate thresholds of each feature
+	private short[][] buckets;		// the threshold bucket of each feature of each document
+	private double[] scores;
+	private double[] lambdas;
+	private double[] hessians;
+
+	private ExecutorService pool;
+
+	/**
+	 *  A tree node while it is being grown.
+	 */
+	private static class Leaf {
+		int[] docs;
+		double sum;
+		int feature = -1;	// the best split, if any
+		int bucket;
+		double gain;
+		RankerLambdaMart.Node node = new RankerLambdaMart.Node();
+	}
+
+	//  --------------- Methods ---------------------------------------
+
+	/**
+	 *  @param numOfTrees The number of trees.
+	 *  @param numOfLeaves The maximum number of leaves of a tree.
+	 *  @param learningRate The weight of each tree.
+	 *  @param minLeafSupport The minimum number of documents in a leaf.
+	 *  @param numOfThresholds The maximum number of candidate thresholds
+	 *  of a feature.
+	 *  @param numOfThreads The number of worker threads.
+	 */
+	public RankerTrainerLambdaMart(int numOfTrees, int numOfLeaves,
+			double learningRate, int minLeafSupport, int numOfThresholds,
+			int numOfThreads) {
+		this.numOfTrees = Math.max(1, numOfTrees);
+		this.numOfLeaves = Math.max(2, numOfLeaves);
+		this.learningRate = learningRate;
+		this.minLeafSupport = Math.max(1, minLeafSupport);
+		this.numOfThresholds = Math.min(Math.max(2, numOfThresholds), Short.MAX_VALUE);
+		this.numOfThreads = Math.max(1, numOfThreads);
+	}
+
+	/**
+	 *  Train a ranker.
+	 *  @param matrix The training feature vectors, sorted by qid.
+	 *  @return The trained ranker.
+	 *  @throws InterruptedException The training thread was interrupted.
+	 */
+	public RankerLambdaMart train(FeatureMatrix matrix) throws InterruptedException {
+		this.pool = Executors.newFixedThreadPool(this.numOfThreads);
+		try {
+			this.initialize(matrix);
+			System.out.println("Training LambdaMART on " + this.numOfDocs
+					+ " documents of " + (this.queryStart.length - 1) + " queries.");
+
+			List<RankerLambdaMart.Node> trees = new ArrayList<RankerLambdaMart.Node>();
+			double[] weights = new double[this.numOfTrees];
+			Arrays.fill(weights, this.learningRate);
+
+			for (int t = 0; t < this.numOfTrees; t++) {
+				this.computeLambdas();
+				trees.add(this.growTree());
+			}
+			return new RankerLambdaMart(trees, weights);
+		} finally {
+			this.pool.shutdown();
+			this.pool = null;
+			this.thresholds = null;
+			this.buckets = null;
+		}
+	}
+
+	/**
+	 *  Find the queries, and bucket the value of each feature.
+	 */
+	private void initialize(FeatureMatrix matrix) {
+		this.numOfDocs = matrix.size();
+		this.relevance = new int[this.numOfDocs];
+		this.scores = new double[this.numOfDocs];
+		this.lambdas = new double[this.numOfDocs];
+		this.hessians = new double[this.numOfDocs];
+
+		for (int d = 0; d < this.numOfDocs; d++)
+			this.relevance[d] = matrix.getLabel(d);
+		this.queryStart = matrix.getQueryStarts();
+
+		int dim = matrix.getNumOfFeatures();
+		this.thresholds = new double[dim][];
+		this.buckets = new short[dim][this.numOfDocs];
+		for (int f = 0; f < dim; f++) {
+			float[] column = matrix.getColumn(f);
+			double[] values = new double[this.numOfDocs];
+			for (int d = 0; d < this.numOfDocs; d++)
+				values[d] = column[d];
+
+			//  The distinct values, or quantiles of them if there are too
+			//  many.  The last threshold is the maximum, so every value
+			//  has a bucket.
+
+			double[] sorted = values.clone();
+			Arrays.sort(sorted);
+			int n = 0;
+			for (int d = 0; d < sorted.length; d++) {
+				if (n == 0 || sorted[d] != sorted[n - 1])
+					sorted[n++] = sorted[d];
+			}
+			double[] t = new double[Math.min(n, this.numOfThresholds)];
+			for (int i = 0; i < t.length; i++)
+				t[i] = sorted[(int) ((long) (i + 1) * n / t.length) - 1];
+			this.thresholds[f] = t;
+
+			for (int d = 0; d < this.numOfDocs; d++) {
+				int b = Arrays.binarySearch(t, values[d]);
+				this.buckets[f][d] = (short) ((b >= 0) ? b : -b - 1);
+			}
+		}
+	}
+
+	/**
+	 *  Compute the lambda and its derivative for every document from the
+	 *  current scores, one task per query.
+	 */
+	private void computeLambdas() throws InterruptedException {
+		Arrays.fill(this.lambdas, 0);
+		Arrays.fill(this.hessians, 0);
+
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (int q = 0; q + 1 < this.queryStart.length; q++) {
+			final int from = this.queryStart[q], to = this.queryStart[q + 1];
+			futures.add(this.pool.submit(new Runnable() {
+				public void run() {
+					computeLambdas(from, to);
+				}
+			}));
+		}
+		for (Future<?> future : futures)
+			getResult(future);
+	}
+
+	private void computeLambdas(int from, int to) {
+		int n = to - from;
+
+		//  Rank the documents by their current scores.
+
+		Integer[] ranking = new Integer[n];
+		for (int i = 0; i < n; i++)
+			ranking[i] = from + i;
+		Arrays.sort(ranking, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int c = Double.compare(scores[b], scores[a]);
+				return (c != 0) ? c : a.compareTo(b);
+			}
+		});
+
+		int[] ideal = new int[n];
+		for (int i = 0; i < n; i++)
+			ideal[i] = this.relevance[from + i];
+		Arrays.sort(ideal);
+		double idealDcg = 0;
+		for (int i = 0; i < Math.min(n, NDCG_CUTOFF); i++)
+			idealDcg += gain(ideal[n - 1 - i]) * discount(i);
+		if (idealDcg == 0)
+			return;
+
+		//  Swapping two documents below the cutoff doesn't change NDCG, so
+		//  one of each pair is in the top NDCG_CUTOFF.
+
+		for (int i = 0; i < Math.min(n, NDCG_CUTOFF); i++) {
+			int a = ranking[i];
+			for (int j = i + 1; j < n; j++) {
+				int b = ranking[j];
+				if (this.relevance[a] == this.relevance[b])
+					continue;
+
+				int better = (this.relevance[a] > this.relevance[b]) ? a : b;
+				int worse = (better == a) ? b : a;
+				double delta = Math.abs((gain(this.relevance[a]) - gain(this.relevance[b]))
+						* (discount(i) - discount(j))) / idealDcg;
+				double rho = 1 / (1 + Math.exp(this.scores[better] - this.scores[worse]));
+
+				this.lambdas[better] += rho * delta;
+				this.lambdas[worse] -= rho * delta;
+				this.hessians[better] += rho * (1 - rho) * delta;
+				this.hessians[worse] += rho * (1 - rho) * delta;
+			}
+		}
+	}
+
+	private static double gain(int relevance) {
+		return (1 << Math.max(0, relevance)) - 1;
+	}
+
+	private static double discount(int rank) {
+		return (rank < NDCG_CUTOFF) ? 1 / (Math.log(rank + 2) / Math.log(2)) : 0;
+	}
+
+	/**
+	 *  Fit a regression tree to the lambdas, best split first, then set
+	 *  each leaf to its Newton step and update the scores.
+	 */
+	private RankerLambdaMart.Node growTree() throws InterruptedException {
+		Leaf root = new Leaf();
+		root.docs = new int[this.numOfDocs];
+		for (int d = 0; d < this.numOfDocs; d++) {
+			root.docs[d] = d;
+			root.sum += this.lambdas[d];
+		}
+		this.findSplit(root);
+
+		List<Leaf> leaves = new ArrayList<Leaf>();
+		leaves.add(root);
+		while (leaves.size() < this.numOfLeaves) {
+			int best = -1;
+			for (int i = 0; i < leaves.size(); i++) {
+				Leaf leaf = leaves.get(i);
+				if (leaf.feature >= 0 && (best < 0 || leaf.gain > leaves.get(best).gain))
+					best = i;
+			}
+			if (best < 0)
+				break;
+
+			Leaf parent = leaves.get(best);
+			Leaf[] children = this.split(parent);
+			this.findSplit(children[0]);
+			this.findSplit(children[1]);
+			leaves.set(best, children[0]);
+			leaves.add(best + 1, children[1]);
+		}
+
+		for (Leaf leaf : leaves) {
+			double h = 0;
+			for (int d : leaf.docs)
+				h += this.hessians[d];
+			leaf.node.output = (h == 0) ? 0 : leaf.sum / h;
+			for (int d : leaf.docs)
+				this.scores[d] += this.learningRate * leaf.node.output;
+		}
+		return root.node;
+	}
+
+	private Leaf[] split(Leaf parent) {
+		short[] b = this.buckets[parent.feature];
+		int n = 0;
+		for (int d : parent.docs)
+			if (b[d] <= parent.bucket)
+				n++;
+
+		Leaf left = new Leaf();
+		Leaf right = new Leaf();
+		left.docs = new int[n];
+		right.docs = new int[parent.docs.length - n];
+		int l = 0, r = 0;
+		for (int d : parent.docs) {
+			if (b[d] <= parent.bucket) {
+				left.docs[l++] = d;
+				left.sum += this.lambdas[d];
+			} else {
+				right.docs[r++] = d;
+				right.sum += this.lambdas[d];
+			}
+		}
+
+		parent.node.feature = parent.feature;
+		parent.node.threshold = this.thresholds[parent.feature][parent.bucket];
+		parent.node.left = left.node;
+		parent.node.right = right.node;
+		parent.docs = null;
+		return new Leaf[] { left, right };
+	}
+
+	/**
+	 *  Find the split of a leaf that most reduces the squared error of the
+	 *  lambdas, one task per feature.
+	 */
+	private void findSplit(final Leaf leaf) throws InterruptedException {
+		if (leaf.docs.length < 2 * this.minLeafSupport)
+			return;
+
+		List<Future<double[]>> futures = new ArrayList<Future<double[]>>();
+		for (int f = 0; f < this.thresholds.length; f++) {
+			final int feature = f;
+			futures.add(this.pool.submit(new Callable<double[]>() {
+				public double[] call() {
+					return findSplit(leaf, feature);
+				}
+			}));
+		}
+
+		for (int f = 0; f < futures.size(); f++) {
+			double[] split = getResult(futures.get(f));
+			if (split != null && (leaf.feature < 0 || split[1] > leaf.gain)) {
+				leaf.feature = f;
+				leaf.bucket = (int) split[0];
+				leaf.gain = split[1];
+			}
+		}
+	}
+
+	// the best {bucket, gain} of a feature, or null if it can't split the leaf
+	private double[] findSplit(Leaf leaf, int feature) {
+		int numOfBuckets = this.thresholds[feature].length;
+		if (numOfBuckets < 2)
+			return null;
+
+		short[] b = this.buckets[feature];
+		double[] sums = new double[numOfBuckets];
+		int[] counts = new int[numOfBuckets];
+		for (int d : leaf.docs) {
+			sums[b[d]] += this.lambdas[d];
+			counts[b[d]]++;
+		}
+
+		int n = leaf.docs.length;
+		double base = leaf.sum * leaf.sum / n;
+		double[] best = null;
+		double leftSum = 0;
+		int leftCount = 0;
+		for (int i = 0; i + 1 < numOfBuckets; i++) {
+			leftSum += sums[i];
+			leftCount += counts[i];
+			int rightCount = n - leftCount;
+			if (leftCount < this.minLeafSupport)
+				continue;
+			if (rightCount < this.minLeafSupport)
+				break;
+
+			double rightSum = leaf.sum - leftSum;
+			double gain = leftSum * leftSum / leftCount
+					+ rightSum * rightSum / rightCount - base;
+			if (gain > 0 && (best == null || gain > best[1]))
+				best = new double[] { i, gain };
+		}
+		return best;
+	}
+
+	private static <T> T getResult(Future<T> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+}
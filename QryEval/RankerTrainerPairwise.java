@@ -0,0 +1,331 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  Trains a linear RankerLinear from pairwise preferences.  Within each
+ *  query, every pair of documents with different relevance is a
+ *  preference that the better document should score higher; pairs are
+ *  stored as the indexes of their two feature vectors rather than as
+ *  difference vectors.
+ *  <p>
+ *  RankSVM minimizes 1/2 |w|^2 + C/Q sum max(0, 1 - w.(x_i - x_j)), the
+ *  objective of svm_rank_learn with Q training queries, by dual
+ *  coordinate descent.  RankNet minimizes the same objective with the
+ *  logistic loss log(1 + exp(-w.(x_i - x_j))) by gradient descent with
+ *  a backtracking line search; it is RankNet without hidden layers,
+ *  which is what a linear model can represent.  Pairs are built, and
+ *  RankNet's gradients are computed, on several threads; partial
+ *  results are always combined in the same order, so training is
+ *  deterministic.
+ *  </p>
+ */
+public class RankerTrainerPairwise {
+
+	//  --------------- Constants and variables ---------------------
+
+	public enum Loss {
+		HINGE, LOGISTIC
+	};
+
+	private static final double EPSILON = 1e-3;
+
+	private final Loss loss;
+	private final double c;
+	private final int maxIterations;
+	private final int numOfThreads;
+	private final long seed;
+
+	private int numOfFeatures;
+	private double[][] x;	// the feature vectors
+	private int[] labels;
+	private int[] better;	// the better document of each pair
+	private int[] worse;	// the worse document of each pair
+	private int numOfQueries;
+
+	//  --------------- Methods ---------------------------------------
+
+	/**
+	 *  @param loss HINGE for RankSVM, LOGISTIC for RankNet.
+	 *  @param c The trade-off between the training error and the margin,
+	 *  as svm_rank_learn's -c.
+	 *  @param maxIterations The maximum number of passes over the pairs.
+	 *  @param numOfThreads The number of worker threads.
+	 *  @param seed The seed of the order in which pairs are visited.
+	 */
+	public RankerTrainerPairwise(Loss loss, double c, int maxIterations,
+			int numOfThreads, long seed) {
+		this.loss = loss;
+		this.c = c;
+		this.maxIterations = Math.max(1, maxIterations);
+		this.numOfThreads = Math.max(1, numOfThreads);
+		this.seed = seed;
+	}
+
+	/**
+	 *  Train a ranker.
+	 *  @param matrix The training feature vectors, sorted by qid.
+	 *  @return The trained ranker.
+	 *  @throws InterruptedException The training thread was interrupted.
+	 */
+	public RankerLinear train(FeatureMatrix matrix) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(this.numOfThreads);
+		try {
+			this.numOfFeatures = matrix.getNumOfFeatures();
+			this.x = new double[matrix.size()][];
+			this.labels = new int[matrix.size()];
+			for (int i = 0; i < this.x.length; i++) {
+				this.x[i] = matrix.getRow(i, null);
+				this.labels[i] = matrix.getLabel(i);
+			}
+
+			this.buildPairs(matrix.getQueryStarts(), pool);
+			System.out.println("Training " + this.loss + " on " + this.better.length
+					+ " pairs of " + this.numOfQueries + " queries.");
+
+			double[] w = (this.loss == Loss.HINGE) ?
+					this.trainHinge() : this.trainLogistic(pool);
+			return new RankerLinear(w, 0);
+		} finally {
+			pool.shutdown();
+			this.x = null;
+			this.labels = null;
+			this.better = null;
+			this.worse = null;
+		}
+	}
+
+	/**
+	 *  Build the pairs of every query on the pool, then concatenate them
+	 *  in query order.
+	 */
+	private void buildPairs(int[] queryStarts, ExecutorService pool)
+			throws InterruptedException {
+
+		List<Future<int[][]>> futures = new ArrayList<Future<int[][]>>();
+		for (int q = 0; q + 1 < queryStarts.length; q++) {
+			final int from = queryStarts[q], to = queryStarts[q + 1];
+			futures.add(pool.submit(new Callable<int[][]>() {
+				public int[][] call() {
+					return pairsOfQuery(from, to);
+				}
+			}));
+		}
+		this.numOfQueries = futures.size();
+
+		List<int[][]> pairs = new ArrayList<int[][]>();
+		int n = 0;
+		for (Future<int[][]> future : futures) {
+			pairs.add(getResult(future));
+			n += pairs.get(pairs.size() - 1)[0].length;
+		}
+
+		this.better = new int[n];
+		this.worse = new int[n];
+		n = 0;
+		for (int[][] p : pairs) {
+			System.arraycopy(p[0], 0, this.better, n, p[0].length);
+			System.arraycopy(p[1], 0, this.worse, n, p[1].length);
+			n += p[0].length;
+		}
+	}
+
+	private int[][] pairsOfQuery(int from, int to) {
+		int n = 0;
+		for (int i = from; i < to; i++)
+			for (int j = i + 1; j < to; j++)
+				if (this.labels[i] != this.labels[j])
+					n++;
+
+		int[][] pairs = new int[2][n];
+		n = 0;
+		for (int i = from; i < to; i++) {
+			for (int j = i + 1; j < to; j++) {
+				int ri = this.labels[i];
+				int rj = this.labels[j];
+				if (ri == rj)
+					continue;
+				pairs[0][n] = (ri > rj) ? i : j;
+				pairs[1][n] = (ri > rj) ? j : i;
+				n++;
+			}
+		}
+		return pairs;
+	}
+
+	// w.(x_better - x_worse) of pair p
+	private double margin(double[] w, int p) {
+		double[] a = this.x[this.better[p]];
+		double[] b = this.x[this.worse[p]];
+		double m = 0;
+		for (int k = 0; k < w.length; k++)
+			m += w[k] * (a[k] - b[k]);
+		return m;
+	}
+
+	/**
+	 *  Dual coordinate descent for the L1-loss linear SVM on the pair
+	 *  differences (Hsieh et al., 2008).  It stops when the projected
+	 *  gradients of a pass are all within EPSILON.
+	 */
+	private double[] trainHinge() {
+		int dim = this.numOfFeatures;
+		int n = this.better.length;
+		double upper = this.c / Math.max(1, this.numOfQueries);
+		double[] w = new double[dim];
+		double[] alpha = new double[n];
+		double[] qpp = new double[n];
+
+		int[] order = new int[n];
+		for (int p = 0; p < n; p++) {
+			order[p] = p;
+			double[] a = this.x[this.better[p]];
+			double[] b = this.x[this.worse[p]];
+			for (int k = 0; k < dim; k++)
+				qpp[p] += (a[k] - b[k]) * (a[k] - b[k]);
+		}
+
+		Random random = new Random(this.seed);
+		for (int iteration = 0; iteration < this.maxIterations; iteration++) {
+			for (int p = n - 1; p > 0; p--) {
+				int q = random.nextInt(p + 1);
+				int t = order[p];
+				order[p] = order[q];
+				order[q] = t;
+			}
+
+			double maxPG = Double.NEGATIVE_INFINITY;
+			double minPG = Double.POSITIVE_INFINITY;
+
+			for (int p : order) {
+				if (qpp[p] == 0)
+					continue;
+
+				double g = this.margin(w, p) - 1;
+				double pg = g;
+				if (alpha[p] == 0)
+					pg = Math.min(g, 0);
+				else if (alpha[p] == upper)
+					pg = Math.max(g, 0);
+				maxPG = Math.max(maxPG, pg);
+				minPG = Math.min(minPG, pg);
+
+				if (pg != 0) {
+					double old = alpha[p];
+					alpha[p] = Math.min(Math.max(old - g / qpp[p], 0), upper);
+					double delta = alpha[p] - old;
+					double[] a = this.x[this.better[p]];
+					double[] b = this.x[this.worse[p]];
+					for (int k = 0; k < dim; k++)
+						w[k] += delta * (a[k] - b[k]);
+				}
+			}
+
+			if (maxPG - minPG <= EPSILON)
+				break;
+		}
+		return w;
+	}
+
+	/**
+	 *  Gradient descent with a backtracking line search for the logistic
+	 *  pairwise loss.  It stops when the gradient norm falls below
+	 *  EPSILON times its initial value.
+	 */
+	private double[] trainLogistic(ExecutorService pool) throws InterruptedException {
+		int dim = this.numOfFeatures;
+		double scale = this.c / Math.max(1, this.numOfQueries);
+		double[] w = new double[dim];
+		double[] gradient = new double[dim];
+		double f = this.logistic(w, scale, gradient, pool);
+		double initialNorm = norm(gradient);
+		double step = 1.0;
+
+		for (int iteration = 0; iteration < this.maxIterations; iteration++) {
+			double gg = norm(gradient);
+			if (gg <= EPSILON * initialNorm || gg == 0)
+				break;
+			gg *= gg;
+
+			double[] next = new double[dim];
+			double[] nextGradient = new double[dim];
+			double nextF;
+			while (true) {
+				for (int k = 0; k < dim; k++)
+					next[k] = w[k] - step * gradient[k];
+				nextF = this.logistic(next, scale, nextGradient, pool);
+				if (nextF <= f - 0.5 * step * gg || step < 1e-12)
+					break;
+				step *= 0.5;
+			}
+
+			w = next;
+			gradient = nextGradient;
+			f = nextF;
+			step *= 2;
+		}
+		return w;
+	}
+
+	/**
+	 *  Compute the logistic objective and its gradient, with the pairs
+	 *  split into one chunk per thread.
+	 */
+	private double logistic(final double[] w, final double scale, double[] gradient,
+			ExecutorService pool) throws InterruptedException {
+
+		final int dim = w.length;
+		final int n = this.better.length;
+		int chunk = (n + this.numOfThreads - 1) / this.numOfThreads;
+
+		List<Future<double[]>> futures = new ArrayList<Future<double[]>>();
+		for (int start = 0; start < n; start += chunk) {
+			final int from = start, to = Math.min(n, start + chunk);
+			futures.add(pool.submit(new Callable<double[]>() {
+				public double[] call() {
+					// the loss, then the gradient of the loss
+					double[] result = new double[dim + 1];
+					for (int p = from; p < to; p++) {
+						double m = margin(w, p);
+						result[0] += (m > 0) ? Math.log1p(Math.exp(-m)) : -m + Math.log1p(Math.exp(m));
+						double sigma = 1 / (1 + Math.exp(m));	// -d loss / d m
+						double[] a = x[better[p]];
+						double[] b = x[worse[p]];
+						for (int k = 0; k < dim; k++)
+							result[k + 1] -= sigma * (a[k] - b[k]);
+					}
+					return result;
+				}
+			}));
+		}
+
+		double f = 0;
+		for (int k = 0; k < dim; k++)
+			gradient[k] = w[k];
+		for (int k = 0; k < dim; k++)
+			f += 0.5 * w[k] * w[k];
+		for (Future<double[]> future : futures) {
+			double[] partial = getResult(future);
+			f += scale * partial[0];
+			for (int k = 0; k < dim; k++)
+				gradient[k] += scale * partial[k + 1];
+		}
+		return f;
+	}
+
+	private static double norm(double[] v) {
+		double s = 0;
+		for (double d : v)
+			s += d * d;
+		return Math.sqrt(s);
+	}
+
+	private static <T> T getResult(Future<T> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+}
@@ -16,4 +16,14 @@ public abstract class RetrievalModel {
    */
   public abstract String defaultQrySopName ();
 
+  /**
+   *  A string version of the retrieval model and the parameters that
+   *  affect document scores, e.g. for the keys of a result cache.
+   *  Models with parameters override it.
+   *  @return The string version of the retrieval model.
+   */
+  public String toString () {
+    return this.getClass ().getSimpleName ();
+  }
+
 }
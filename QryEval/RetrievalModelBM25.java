@@ -40,4 +40,8 @@ public class RetrievalModelBM25 extends RetrievalModel {
 	public void setK_3(double k_3) {
 		this.k_3 = k_3;
 	}
+
+	public String toString() {
+		return "BM25(k_1=" + k_1 + ",b=" + b + ",k_3=" + k_3 + ")";
+	}
 }
@@ -16,6 +16,12 @@ public class RetrievalModelIndri extends RetrievalModel {
 	private double fbOrigWeight;
 	private String fbExpansionQueryFile;
 	private String fbInitialRankingFile;
+	
+	//following fields are used by the #sdm operator
+	private double sdmUnigramWeight = 0.8;
+	private double sdmOrderedWeight = 0.1;
+	private double sdmUnorderedWeight = 0.1;
+	private int sdmWindowSize = 8;
 			
 	public RetrievalModelIndri(double mu, double lambda) {
 		this.setFb(false);
@@ -113,4 +119,46 @@ public class RetrievalModelIndri extends RetrievalModel {
 	public void setFbInitialRankingFile(String fbInitialRankingFile) {
 		this.fbInitialRankingFile = fbInitialRankingFile;
 	}
+
+	public double getSdmUnigramWeight() {
+		return sdmUnigramWeight;
+	}
+
+	public void setSdmUnigramWeight(double sdmUnigramWeight) {
+		this.sdmUnigramWeight = sdmUnigramWeight;
+	}
+
+	public double getSdmOrderedWeight() {
+		return sdmOrderedWeight;
+	}
+
+	public void setSdmOrderedWeight(double sdmOrderedWeight) {
+		this.sdmOrderedWeight = sdmOrderedWeight;
+	}
+
+	public double getSdmUnorderedWeight() {
+		return sdmUnorderedWeight;
+	}
+
+	public void setSdmUnorderedWeight(double sdmUnorderedWeight) {
+		this.sdmUnorderedWeight = sdmUnorderedWeight;
+	}
+
+	public int getSdmWindowSize() {
+		return sdmWindowSize;
+	}
+
+	public void setSdmWindowSize(int sdmWindowSize) {
+		this.sdmWindowSize = sdmWindowSize;
+	}
+
+	/**
+	 * The query expansion parameters are left out, because they don't change
+	 * how a given query is scored.
+	 */
+	public String toString() {
+		return "Indri(mu=" + mu + ",lambda=" + lambda + ",sdm=" + sdmUnigramWeight
+				+ "/" + sdmOrderedWeight + "/" + sdmUnorderedWeight + "/"
+				+ sdmWindowSize + ")";
+	}
 }
@@ -12,12 +12,24 @@ public class RetrievalModelletor extends RetrievalModel {
 	private String trainingFeatureVectorsFile;
 	private String pageRankFile;
 	private Set<Integer> featureDisable;
+	private FeatureRegistry featureRegistry = FeatureRegistry.createDefault();
+	private FeatureCache featureCache; //null unless letor:featureCachePath is set
 	private String svmRankLearnPath;
 	private String svmRankClassifyPath;
 	private double svmRankParamC;
 	private String svmRankModelFile;
 	private String testingFeatureVectorsFile;
 	private String testingDocumentScores;
+	private String learner = "svm_rank_learn"; //svm_rank_learn, RankSVM, RankNet or LambdaMART
+	private int threads = 1; //threads used by feature extraction and the in-process learners
+	private String featureFileFormat = "text"; //text (SVM-light) or binary (FeatureFile)
+	
+	//LambdaMART parameters
+	private int numTrees = 1000;
+	private int numLeaves = 10;
+	private double learningRate = 0.1;
+	private int minLeafSupport = 1;
+	private int numThresholds = 256;
 	
 	//bm25 parameters
 	private double k_1;
@@ -218,4 +230,84 @@ public class RetrievalModelletor extends RetrievalModel {
 	public void setFeatureDisable(Set<Integer> featureDisable) {
 		this.featureDisable = featureDisable;
 	}
+
+	public FeatureRegistry getFeatureRegistry() {
+		return featureRegistry;
+	}
+
+	public void setFeatureRegistry(FeatureRegistry featureRegistry) {
+		this.featureRegistry = featureRegistry;
+	}
+
+	public FeatureCache getFeatureCache() {
+		return featureCache;
+	}
+
+	public void setFeatureCache(FeatureCache featureCache) {
+		this.featureCache = featureCache;
+	}
+
+	public String getFeatureFileFormat() {
+		return featureFileFormat;
+	}
+
+	public void setFeatureFileFormat(String featureFileFormat) {
+		this.featureFileFormat = featureFileFormat;
+	}
+
+	public String getLearner() {
+		return learner;
+	}
+
+	public void setLearner(String learner) {
+		this.learner = learner;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public int getNumTrees() {
+		return numTrees;
+	}
+
+	public void setNumTrees(int numTrees) {
+		this.numTrees = numTrees;
+	}
+
+	public int getNumLeaves() {
+		return numLeaves;
+	}
+
+	public void setNumLeaves(int numLeaves) {
+		this.numLeaves = numLeaves;
+	}
+
+	public double getLearningRate() {
+		return learningRate;
+	}
+
+	public void setLearningRate(double learningRate) {
+		this.learningRate = learningRate;
+	}
+
+	public int getMinLeafSupport() {
+		return minLeafSupport;
+	}
+
+	public void setMinLeafSupport(int minLeafSupport) {
+		this.minLeafSupport = minLeafSupport;
+	}
+
+	public int getNumThresholds() {
+		return numThresholds;
+	}
+
+	public void setNumThresholds(int numThresholds) {
+		this.numThresholds = numThresholds;
+	}
 }
@@ -0,0 +1,122 @@
+import java.util.Arrays;
+
+/**
+ *  A bounded collector of the best document scores of a query.  It keeps
+ *  a min-heap of the k highest scores, plus the documents that tie with
+ *  the lowest of them, so the first k entries of the sorted ScoreList
+ *  are the same as if every document had been kept.  External ids are
+ *  only looked up for the documents that survive.
+ */
+public class ScoreHeap {
+
+	private final int capacity;
+	private double[] scores;
+	private int[] docids;
+	private int size = 0;
+
+	//documents that didn't fit in the heap but tie with its lowest score
+	private int[] tieDocids = new int[4];
+	private int numOfTies = 0;
+
+	/**
+	 *  @param capacity The number of documents to keep, k.
+	 */
+	public ScoreHeap(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		this.scores = new double[this.capacity];
+		this.docids = new int[this.capacity];
+	}
+
+	/**
+	 *  Offer a document score to the collector.
+	 *  @param docid An internal document id.
+	 *  @param score The document's score.
+	 */
+	public void add(int docid, double score) {
+		if (this.size < this.capacity) {
+			this.scores[this.size] = score;
+			this.docids[this.size] = docid;
+			this.siftUp(this.size++);
+			return;
+		}
+
+		double minScore = this.scores[0];
+
+		if (score < minScore) {
+			return;
+		} else if (score == minScore) {
+			this.addTie(docid);
+			return;
+		}
+
+		int evicted = this.docids[0];
+		this.scores[0] = score;
+		this.docids[0] = docid;
+		this.siftDown(0);
+
+		if (this.scores[0] > minScore) {
+			this.numOfTies = 0;
+		} else {
+			this.addTie(evicted);
+		}
+	}
+
+	/**
+	 *  Get the collected documents as an unsorted ScoreList.  Sort it and
+	 *  use its first k entries.
+	 *  @return The score list.
+	 */
+	public ScoreList getScoreList() {
+		ScoreList result = new ScoreList();
+
+		for (int i = 0; i < this.size; i++) {
+			result.add(this.docids[i], this.scores[i]);
+		}
+		for (int i = 0; i < this.numOfTies; i++) {
+			result.add(this.tieDocids[i], this.scores[0]);
+		}
+		return result;
+	}
+
+	/**
+	 *  @return The number of collected documents, including ties.
+	 */
+	public int size() {
+		return this.size + this.numOfTies;
+	}
+
+	private void addTie(int docid) {
+		if (this.numOfTies == this.tieDocids.length)
+			this.tieDocids = Arrays.copyOf(this.tieDocids, 2 * this.numOfTies);
+		this.tieDocids[this.numOfTies++] = docid;
+	}
+
+	private void swap(int a, int b) {
+		double score = this.scores[a];
+		int docid = this.docids[a];
+		this.scores[a] = this.scores[b];
+		this.docids[a] = this.docids[b];
+		this.scores[b] = score;
+		this.docids[b] = docid;
+	}
+
+	private void siftUp(int i) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (this.scores[i] >= this.scores[parent]) break;
+			this.swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i) {
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= this.size) break;
+			if (child + 1 < this.size && this.scores[child + 1] < this.scores[child]) child++;
+			if (this.scores[child] >= this.scores[i]) break;
+			this.swap(i, child);
+			i = child;
+		}
+	}
+}
@@ -29,6 +29,12 @@ public class ScoreList {
 	ex.printStackTrace();
       }
     }
+
+    private ScoreListEntry(int internalDocid, String externalId, double score) {
+      this.docid = internalDocid;
+      this.externalId = externalId;
+      this.score = score;
+    }
   }
 
   /**
@@ -45,6 +51,26 @@ public class ScoreList {
     scores.add(new ScoreListEntry(docid, score));
   }
 
+  /**
+   *  Append a document score whose external id is already known, which
+   *  saves a lookup in the index.
+   *  @param docid An internal document id.
+   *  @param externalId The document's external id.
+   *  @param score The document's score.
+   */
+  public void add(int docid, String externalId, double score) {
+    scores.add(new ScoreListEntry(docid, externalId, score));
+  }
+
+  /**
+   *  Get the external docid of the n'th entry.
+   *  @param n The index of the requested document.
+   *  @return The external document id.
+   */
+  public String getExternalDocid(int n) {
+    return this.scores.get(n).externalId;
+  }
+
   /**
    *  Get the internal docid of the n'th entry.
    *  @param n The index of the requested document.
@@ -3,6 +3,7 @@
  */
 
 import java.io.*;
+import java.util.Arrays;
 
 import org.apache.lucene.index.DocsAndPositionsEnum;
 import org.apache.lucene.index.Term;
@@ -36,7 +37,8 @@ public class TermVector {
 
 	private int fieldLength;
 	private Terms luceneTerms;
-	private int[] positions;	// Index of the stem that at this position
+	private int[] positions;	// Index of the stem that at this position, or null if not stored
+	private int numOfPositions;
 	private String[] stems;	// The vocabulary. 0 indicates a stopword
 	private int[] stemsFreq;	// The frequency (tf) of each entry in stems
 	private Term[] terms;
@@ -45,6 +47,8 @@ public class TermVector {
 	//  --------------- Methods ---------------------------------------
 
 	/**
+	 *  Get a document field's term vector.  It is read from the forward
+	 *  index if Idx has one that covers the field, otherwise from Lucene.
 	 *  @param docId An internal document id
 	 *  @param fieldName The name of a document field.
 	 *  @throws IOException Error accessing the Lucene index
@@ -54,6 +58,12 @@ public class TermVector {
 		this.fieldName = fieldName;
 		this.fieldLength = 0;
 
+		ForwardIndex forwardIndex = Idx.getForwardIndex();
+		if (forwardIndex != null && forwardIndex.hasField(fieldName)) {
+			this.read(forwardIndex);
+			return;
+		}
+
 		//  Fetch the term vector, if one exists.
 
 		this.luceneTerms = Idx.INDEXREADER.getTermVector(docId, fieldName);
@@ -71,65 +81,122 @@ public class TermVector {
 		terms = new Term[stemsLength + 1];
 		stemsFreq = new int[stemsLength + 1];
 
-		//  Iterate through the terms, filling in the stem and frequency
-		//  information, and finding the position of the last term. The
-		//  0'th term indicates a stopword, so this loop starts at i=1.
+		//  Iterate through the terms once, filling in the stem and
+		//  frequency information and the positions of each stem.  The
+		//  positions array grows as larger positions are seen; its size
+		//  ends up one bigger than the biggest position.  The 0'th term
+		//  indicates a stopword, so this loop starts at i=1.
 
 		TermsEnum ithTerm = this.luceneTerms.iterator(null);
-
+		DocsAndPositionsEnum ithPositions = null;
+		int[] stemAt = new int[64];
 		int lastPosition = 0;
+
 		for (int i = 1; ithTerm.next() != null; i++) {
 			stems[i] = ithTerm.term().utf8ToString();
-			terms[i] = new Term(fieldName, ithTerm.term().utf8ToString());
 			stemsFreq[i] = (int) ithTerm.totalTermFreq();
 			fieldLength += stemsFreq[i]; 
 
-			//  Find the position of the last (indexed) term in the
-			//  document, so that the positions array can be created and
-			//  populated later. The last position for each term is the
-			//  largest, so ignore the positions before it.
-
-			DocsAndPositionsEnum ithPositions = ithTerm.docsAndPositions(null, null);
-
+			ithPositions = ithTerm.docsAndPositions(null, ithPositions);
 			ithPositions.nextDoc(); /* Initialize iPositions */
 
-			for (int j = 0; j < ithPositions.freq() - 1; j++)
-				ithPositions.nextPosition();
-
-			lastPosition = Math.max(lastPosition, ithPositions.nextPosition());
+			for (int j = 0; j < ithPositions.freq(); j++) {
+				int position = ithPositions.nextPosition();
+				if (position >= stemAt.length)
+					stemAt = Arrays.copyOf(stemAt, Math.max(position + 1, 2 * stemAt.length));
+				stemAt[position] = i;
+				lastPosition = Math.max(lastPosition, position);
+			}
 		}
 
-		// Create and fill the positions array. Since we have position indexes, the array's size needs 
-		// to be one bigger than the biggest position.
-		positions = new int[lastPosition + 1];
+		positions = Arrays.copyOf(stemAt, lastPosition + 1);
+		numOfPositions = positions.length;
+	}
 
-		ithTerm = this.luceneTerms.iterator(null);
+	/**
+	 *  Get a document field's term vector from a forward index.  The
+	 *  stem strings are shared with the index's term dictionary, and
+	 *  nothing is read from Lucene.
+	 *  @param forwardIndex A forward index that covers the field.
+	 *  @param docId An internal document id
+	 *  @param fieldName The name of a document field.
+	 **/
+	public TermVector(ForwardIndex forwardIndex, int docId, String fieldName) {
+		this.docId = docId;
+		this.fieldName = fieldName;
+		this.fieldLength = 0;
+		this.read(forwardIndex);
+	}
 
-		for (int i = 0; ithTerm.next() != null; i++) {
-			DocsAndPositionsEnum ithPositions = ithTerm.docsAndPositions(null, null);
+	private void read(ForwardIndex forwardIndex) {
+		ForwardIndex.Document d = forwardIndex.getDocument(this.docId, this.fieldName);
+		if (d.termIds.length == 0)
+			return;
 
-			ithPositions.nextDoc(); /* Initialize iPositions */
+		stems = new String[d.termIds.length + 1];
+		terms = new Term[d.termIds.length + 1];
+		stemsFreq = new int[d.termIds.length + 1];
 
-			for (int j = 0; j < ithPositions.freq(); j++)
-				positions[ithPositions.nextPosition()] = i + 1;
+		for (int i = 1; i < stems.length; i++) {
+			stems[i] = forwardIndex.getTerm(d.termIds[i - 1]);
+			stemsFreq[i] = d.tfs[i - 1];
+			fieldLength += stemsFreq[i];
 		}
+
+		positions = d.positions;
+		numOfPositions = d.length;
 	}
 
 	/**
 	 *  Get the index of stem in the stems vector, or -1 if the stems
-	 *  vector does not contain the stem.  
+	 *  vector does not contain the stem.  The stems are in Lucene's term
+	 *  order (Unicode code point order), so this is a binary search.
 	 *  @param stem The stem to search for.
 	 *  @return the index of the stem in the stems vector, or -1 if it does not occur.
 	 */
 	public int indexOfStem (String stem) {
 
-		for (int s=1; s<this.stems.length; s++)
-			if (stem.equals (this.stems [s]))
-				return s;
+		if (this.stems == null)
+			return -1;
+
+		int low = 1;
+		int high = this.stems.length - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int c = compareStems (this.stems [middle], stem);
+			if (c < 0)
+				low = middle + 1;
+			else if (c > 0)
+				high = middle - 1;
+			else
+				return middle;
+		}
 
 		return -1;
 	}
 
+	/**
+	 *  Compare two strings in Unicode code point order, which is the
+	 *  order of their UTF-8 bytes, i.e., Lucene's term order.  It only
+	 *  differs from String.compareTo when surrogates are compared with
+	 *  chars from U+E000 to U+FFFF.
+	 */
+	private static int compareStems (String a, String b) {
+		int n = Math.min (a.length (), b.length ());
+		for (int i = 0; i < n; i++) {
+			char ca = a.charAt (i);
+			char cb = b.charAt (i);
+			if (ca != cb) {
+				if (ca >= 0xD800 && cb >= 0xD800) {
+					ca = (char) ((ca >= 0xE000) ? ca - 0x800 : ca + 0x2000);
+					cb = (char) ((cb >= 0xE000) ? cb - 0x800 : cb + 0x2000);
+				}
+				return ca - cb;
+			}
+		}
+		return a.length () - b.length ();
+	}
+
 	/**
 	 *  Get the number of positions in this field (the length of the
 	 *  field). If positions are not stored, it returns 0.
@@ -139,7 +206,7 @@ public class TermVector {
 		if (this.fieldLength == 0)
 			return 0;
 
-		return this.positions.length;
+		return this.numOfPositions;
 	}
 
 	/**
@@ -149,7 +216,7 @@ public class TermVector {
 	 *  @return Index of the stem.
 	 */
 	public int stemAt(int i) {
-		if (i < positions.length)
+		if (positions != null && i < positions.length)
 			return positions[i];
 		else
 			return -1;
@@ -199,7 +266,7 @@ public class TermVector {
 	 * @throws IOException  Error accessing the Lucene index
 	 */
 	public long totalStemFreq(int i) throws IOException {
-		return Idx.INDEXREADER.totalTermFreq(terms[i]);
+		return Idx.INDEXREADER.totalTermFreq(this.term(i));
 	}
 
 	/**
@@ -209,9 +276,16 @@ public class TermVector {
 	 * @throws IOException Error accessing the Lucene index
 	 */
 	public int stemDf(int i) throws IOException {
-		return Idx.INDEXREADER.docFreq(terms[i]);
+		return Idx.INDEXREADER.docFreq(this.term(i));
 	}
 	
+	//Lucene Terms are only created for the stems whose statistics are used
+	private Term term(int i) {
+		if (terms[i] == null)
+			terms[i] = new Term(fieldName, stems[i]);
+		return terms[i];
+	}
+
 	//getter and setter for indriScore
 	public double getIndriScore() {
 		return indriScore;
@@ -0,0 +1,164 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ *  Fetches batches of TermVectors on a pool of worker threads.  The
+ *  requests of a batch are sorted by docid before they are submitted, so
+ *  the workers read the index roughly in order, and at most a fixed
+ *  number of fetches are queued or running at once.  Results are
+ *  returned in the order of the requests.
+ */
+public class TermVectorFetcher {
+
+	//  --------------- Constants and variables ---------------------
+
+	private static TermVectorFetcher INSTANCE = null;
+
+	private final int numOfThreads;
+	private final int maxInFlight;
+	private final ExecutorService pool;
+
+	//  --------------- Methods ---------------------------------------
+
+	/**
+	 *  @param numOfThreads The number of worker threads.  With 1 thread,
+	 *  batches are fetched on the caller's thread.
+	 *  @param maxInFlight The maximum number of fetches that are queued or
+	 *  running at once.
+	 */
+	public TermVectorFetcher(int numOfThreads, int maxInFlight) {
+		this.numOfThreads = Math.max(1, numOfThreads);
+		this.maxInFlight = Math.max(1, maxInFlight);
+
+		if (this.numOfThreads > 1) {
+			this.pool = Executors.newFixedThreadPool(this.numOfThreads,
+					new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "TermVectorFetcher");
+							t.setDaemon(true);
+							return t;
+						}
+					});
+		} else {
+			this.pool = null;
+		}
+	}
+
+	/**
+	 *  Set the fetcher that getInstance returns.
+	 *  @param numOfThreads The number of worker threads.
+	 *  @param maxInFlight The maximum number of fetches in flight.
+	 */
+	public static synchronized void initialize(int numOfThreads, int maxInFlight) {
+		if (INSTANCE != null)
+			INSTANCE.shutdown();
+		INSTANCE = new TermVectorFetcher(numOfThreads, maxInFlight);
+	}
+
+	/**
+	 *  @return The shared fetcher.  If it hasn't been initialized, it uses
+	 *  one thread per processor and 4 fetches in flight per thread.
+	 */
+	public static synchronized TermVectorFetcher getInstance() {
+		if (INSTANCE == null) {
+			int n = Runtime.getRuntime().availableProcessors();
+			INSTANCE = new TermVectorFetcher(n, 4 * n);
+		}
+		return INSTANCE;
+	}
+
+	/**
+	 *  Fetch the same field of several documents.
+	 *  @param docids Internal document ids.
+	 *  @param fieldName The name of a document field.
+	 *  @return The term vectors, in the order of docids.
+	 *  @throws IOException Error accessing the index.
+	 */
+	public TermVector[] fetch(int[] docids, String fieldName) throws IOException {
+		String[] fieldNames = new String[docids.length];
+		Arrays.fill(fieldNames, fieldName);
+		return this.fetch(docids, fieldNames);
+	}
+
+	/**
+	 *  Fetch a batch of (docid, field) term vectors.
+	 *  @param docids Internal document ids.
+	 *  @param fieldNames The field of each request.
+	 *  @return The term vectors, in the order of the requests.
+	 *  @throws IOException Error accessing the index.
+	 */
+	public TermVector[] fetch(final int[] docids, final String[] fieldNames)
+			throws IOException {
+
+		final TermVector[] result = new TermVector[docids.length];
+
+		//  Sort the requests by docid, then field.
+
+		Integer[] order = new Integer[docids.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				if (docids[a] != docids[b])
+					return (docids[a] < docids[b]) ? -1 : 1;
+				return fieldNames[a].compareTo(fieldNames[b]);
+			}
+		});
+
+		if (this.pool == null || docids.length < 2) {
+			for (int i : order)
+				result[i] = new TermVector(docids[i], fieldNames[i]);
+			return result;
+		}
+
+		final Semaphore inFlight = new Semaphore(this.maxInFlight);
+		List<Future<?>> futures = new ArrayList<Future<?>>(order.length);
+
+		try {
+			for (final int i : order) {
+				inFlight.acquire();
+				try {
+					futures.add(this.pool.submit(new Callable<Void>() {
+						public Void call() throws IOException {
+							try {
+								result[i] = new TermVector(docids[i], fieldNames[i]);
+								return null;
+							} finally {
+								inFlight.release();
+							}
+						}
+					}));
+				} catch (RejectedExecutionException e) {
+					inFlight.release();
+					throw e;
+				}
+			}
+
+			for (Future<?> future : futures)
+				future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while fetching term vectors.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new IOException(cause);
+		} finally {
+			for (Future<?> future : futures)
+				future.cancel(false);
+		}
+		return result;
+	}
+
+	/**
+	 *  Stop the worker threads.
+	 */
+	public void shutdown() {
+		if (this.pool != null)
+			this.pool.shutdown();
+	}
+}
@@ -0,0 +1,340 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ *  An in-process replacement for trec_eval.  The relevance judgments of a
+ *  qrels file ("qid 0 external_docid relevance" per line) are loaded once
+ *  into sorted arrays of internal docids, so rankings produced by QryEval
+ *  can be evaluated directly, e.g. inside a parameter sweep.
+ *  <p>
+ *  Like trec_eval, a document is relevant if its relevance is above 0, a
+ *  query is only evaluated if it has judgments and a ranking, and nDCG uses
+ *  the relevance as the gain.  Judged documents that are not in the index
+ *  still count as relevant documents; each one gets a negative docid of
+ *  its own, so a run read from a file (e.g. a baseline built from another
+ *  index) that retrieves it gets credit for it.
+ *  </p>
+ */
+public class TrecEval {
+
+	//  --------------- Constants and variables ---------------------
+
+	/**
+	 *  The names of the measures, in the order of the arrays returned by
+	 *  evaluate.
+	 */
+	public static final String[] MEASURES = { "map", "P_10", "P_20", "P_30", "ndcg" };
+
+	public static final int MAP = 0;
+	public static final int P10 = 1;
+	public static final int P20 = 2;
+	public static final int P30 = 3;
+	public static final int NDCG = 4;
+
+	private int ndcgCutoff;
+
+	/**
+	 *  The judgments of a query, sorted by internal docid.
+	 */
+	private static class Judgments {
+		private int[] docids;
+		private int[] rels;
+		private int numOfRel = 0;	// includes relevant documents not in the index
+		private double idcg = 0;	// ideal DCG at the nDCG cutoff
+	}
+
+	private Map<String, Judgments> qrels = new HashMap<String, Judgments>();
+
+	//  The docids given to documents that are not in the index.
+	private static final Map<String, Integer> UNINDEXED = new HashMap<String, Integer>();
+
+	//  --------------- Methods ---------------------------------------
+
+	/**
+	 *  Load a qrels file.  Idx must be initialized.
+	 *  @param qrelsFile The path of the qrels file.
+	 *  @param ndcgCutoff The rank cutoff of nDCG.
+	 *  @throws IOException Error reading the file or the Lucene index.
+	 */
+	public TrecEval(String qrelsFile, int ndcgCutoff) throws IOException {
+		this.ndcgCutoff = ndcgCutoff;
+
+		Map<String, List<int[]>> judged = new LinkedHashMap<String, List<int[]>>();
+		Map<String, List<Integer>> gains = new HashMap<String, List<Integer>>();
+		BufferedReader input = null;
+
+		try {
+			input = new BufferedReader(new FileReader(qrelsFile));
+			String line = null;
+
+			while ((line = input.readLine()) != null) {
+				String col[] = line.trim().split("\\s+");
+				if (col.length != 4) {
+					throw new IllegalArgumentException(
+							"Syntax error:  Incorrect column number in " + qrelsFile);
+				}
+
+				int rel = Integer.parseInt(col[3]);
+				if (!judged.containsKey(col[0])) {
+					judged.put(col[0], new ArrayList<int[]>());
+					gains.put(col[0], new ArrayList<Integer>());
+					this.qrels.put(col[0], new Judgments());
+				}
+				Judgments j = this.qrels.get(col[0]);
+				if (rel > 0) {
+					j.numOfRel++;
+					gains.get(col[0]).add(rel);
+				}
+
+				judged.get(col[0]).add(new int[] { getDocid(col[2]), rel });
+			}
+		} finally {
+			if (input != null)
+				input.close();
+		}
+
+		for (Map.Entry<String, List<int[]>> entry : judged.entrySet()) {
+			List<int[]> pairs = entry.getValue();
+			Collections.sort(pairs, new Comparator<int[]>() {
+				public int compare(int[] a, int[] b) {
+					return (a[0] < b[0]) ? -1 : ((a[0] == b[0]) ? 0 : 1);
+				}
+			});
+
+			Judgments j = this.qrels.get(entry.getKey());
+			j.docids = new int[pairs.size()];
+			j.rels = new int[pairs.size()];
+			for (int i = 0; i < pairs.size(); i++) {
+				j.docids[i] = pairs.get(i)[0];
+				j.rels[i] = pairs.get(i)[1];
+			}
+
+			List<Integer> g = gains.get(entry.getKey());
+			Collections.sort(g, Collections.reverseOrder());
+			for (int i = 0; i < ndcgCutoff && i < g.size(); i++)
+				j.idcg += g.get(i) / log2(i + 2);
+		}
+	}
+
+	/**
+	 *  Evaluate the ranking of one query.
+	 *  @param qid The query id.
+	 *  @param ranking Internal docids, best first.
+	 *  @return The measures in the order of MEASURES, or null if the query
+	 *  has no judgments.
+	 */
+	public double[] evaluate(String qid, int[] ranking) {
+		Judgments j = this.qrels.get(qid);
+		if (j == null)
+			return null;
+
+		double[] result = new double[MEASURES.length];
+		double sumPrecision = 0;
+		double dcg = 0;
+		int numOfRelRetrieved = 0;
+
+		for (int i = 0; i < ranking.length; i++) {
+			int k = Arrays.binarySearch(j.docids, ranking[i]);
+			int rel = (k >= 0) ? j.rels[k] : 0;
+
+			if (rel > 0) {
+				numOfRelRetrieved++;
+				sumPrecision += numOfRelRetrieved / (double) (i + 1);
+				if (i < this.ndcgCutoff)
+					dcg += rel / log2(i + 2);
+			}
+			if (i == 9)
+				result[P10] = numOfRelRetrieved / 10.0;
+			if (i == 19)
+				result[P20] = numOfRelRetrieved / 20.0;
+			if (i == 29)
+				result[P30] = numOfRelRetrieved / 30.0;
+		}
+
+		//short rankings are padded with non-relevant documents
+		if (ranking.length < 10)
+			result[P10] = numOfRelRetrieved / 10.0;
+		if (ranking.length < 20)
+			result[P20] = numOfRelRetrieved / 20.0;
+		if (ranking.length < 30)
+			result[P30] = numOfRelRetrieved / 30.0;
+
+		result[MAP] = (j.numOfRel > 0) ? sumPrecision / j.numOfRel : 0;
+		result[NDCG] = (j.idcg > 0) ? dcg / j.idcg : 0;
+		return result;
+	}
+
+	/**
+	 *  Evaluate a run.
+	 *  @param run Query ids and their rankings of internal docids.
+	 *  @return The measures of each query that has judgments.
+	 */
+	public Map<String, double[]> evaluate(Map<String, int[]> run) {
+		Map<String, double[]> result = new TreeMap<String, double[]>();
+		for (Map.Entry<String, int[]> entry : run.entrySet()) {
+			double[] measures = this.evaluate(entry.getKey(), entry.getValue());
+			if (measures != null)
+				result.put(entry.getKey(), measures);
+		}
+		return result;
+	}
+
+	/**
+	 *  Average the measures of the queries of a run.
+	 *  @param perQuery The measures of each query.
+	 *  @return The mean of each measure.
+	 */
+	public static double[] mean(Map<String, double[]> perQuery) {
+		double[] result = new double[MEASURES.length];
+		for (double[] measures : perQuery.values())
+			for (int m = 0; m < MEASURES.length; m++)
+				result[m] += measures[m];
+		for (int m = 0; m < MEASURES.length; m++)
+			result[m] = (perQuery.size() > 0) ? result[m] / perQuery.size() : 0;
+		return result;
+	}
+
+	/**
+	 *  Count the queries where a run is better or worse than a baseline.
+	 *  @param perQuery The measures of each query of the run.
+	 *  @param baseline The measures of each query of the baseline.
+	 *  @param measure The measure to compare, e.g. MAP.
+	 *  @return The number of wins and the number of losses.
+	 */
+	public static int[] winLoss(Map<String, double[]> perQuery,
+			Map<String, double[]> baseline, int measure) {
+		int[] result = new int[2];
+		for (Map.Entry<String, double[]> entry : perQuery.entrySet()) {
+			double[] base = baseline.get(entry.getKey());
+			if (base == null)
+				continue;
+			if (entry.getValue()[measure] > base[measure])
+				result[0]++;
+			else if (entry.getValue()[measure] < base[measure])
+				result[1]++;
+		}
+		return result;
+	}
+
+	/**
+	 *  Get the ranking of the first n documents of a sorted score list,
+	 *  the documents that are written to the .teIn file.  Ties are
+	 *  reordered the way trec_eval (and readRun) orders them, by external
+	 *  docid in decreasing order.
+	 *  @param r A sorted score list.
+	 *  @param n The maximum length of the ranking.
+	 *  @return The ranking.
+	 */
+	public static int[] ranking(final ScoreList r, int n) {
+		Integer[] order = new Integer[Math.min(n, r.size())];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int c = Double.compare(r.getDocidScore(b), r.getDocidScore(a));
+				return (c != 0) ? c : r.getExternalDocid(b).compareTo(r.getExternalDocid(a));
+			}
+		});
+
+		int[] result = new int[order.length];
+		for (int i = 0; i < result.length; i++)
+			result[i] = r.getDocid(order[i]);
+		return result;
+	}
+
+	/**
+	 *  Read a run in TREC format, e.g. a baseline .teIn file.  As in
+	 *  trec_eval, the documents of each query are ranked by score, with
+	 *  ties broken by external docid in decreasing order, and the ranks in
+	 *  the file are ignored.  Idx must be initialized; documents that are
+	 *  not in the index get a negative docid of their own.
+	 *  @param runFile The path of the run file.
+	 *  @return Query ids and their rankings of internal docids.
+	 *  @throws IOException Error reading the file or the Lucene index.
+	 */
+	public static Map<String, int[]> readRun(String runFile) throws IOException {
+		Map<String, List<String[]>> lines = new LinkedHashMap<String, List<String[]>>();
+		BufferedReader input = null;
+
+		try {
+			input = new BufferedReader(new FileReader(runFile));
+			String line = null;
+
+			// line format is "qid Q0 external_docid rank score run_name"
+			while ((line = input.readLine()) != null) {
+				String col[] = line.trim().split("\\s+");
+				if (col.length < 6)
+					continue;
+
+				List<String[]> query = lines.get(col[0]);
+				if (query == null) {
+					query = new ArrayList<String[]>();
+					lines.put(col[0], query);
+				}
+				if (!col[2].equals("dummy"))
+					query.add(col);
+			}
+		} finally {
+			if (input != null)
+				input.close();
+		}
+
+		Map<String, int[]> result = new LinkedHashMap<String, int[]>();
+		for (Map.Entry<String, List<String[]>> entry : lines.entrySet()) {
+			List<String[]> query = entry.getValue();
+			Collections.sort(query, new Comparator<String[]>() {
+				public int compare(String[] a, String[] b) {
+					int c = Double.compare(Double.parseDouble(b[4]), Double.parseDouble(a[4]));
+					return (c != 0) ? c : b[2].compareTo(a[2]);
+				}
+			});
+
+			int[] ranking = new int[query.size()];
+			for (int i = 0; i < ranking.length; i++)
+				ranking[i] = getDocid(query.get(i)[2]);
+			result.put(entry.getKey(), ranking);
+		}
+		return result;
+	}
+
+	/**
+	 *  Print the mean measures of a run in trec_eval's format, and its
+	 *  wins and losses against a baseline if there is one.
+	 *  @param name The name of the run, printed in place of trec_eval's "all".
+	 *  @param perQuery The measures of each query of the run.
+	 *  @param baseline The measures of each query of the baseline, or null.
+	 */
+	public void printSummary(String name, Map<String, double[]> perQuery,
+			Map<String, double[]> baseline) {
+		double[] mean = mean(perQuery);
+		for (int m = 0; m < MEASURES.length; m++) {
+			String measure = (m == NDCG) ? "ndcg_cut_" + this.ndcgCutoff : MEASURES[m];
+			System.out.println(String.format("%-20s\t%s\t%.4f", measure, name, mean[m]));
+		}
+		if (baseline != null) {
+			int[] wl = winLoss(perQuery, baseline, MAP);
+			System.out.println(String.format("%-20s\t%s\t%d/%d", "win/loss(map)",
+					name, wl[0], wl[1]));
+		}
+	}
+
+	//  The internal docid of a document, or a negative docid of its own if
+	//  it is not in the index.
+	private static synchronized int getDocid(String externalId) {
+		Integer docid = UNINDEXED.get(externalId);
+		if (docid != null)
+			return docid;
+
+		try {
+			return Idx.getInternalDocid(externalId);
+		} catch (Exception e) {
+			docid = -1 - UNINDEXED.size();
+			UNINDEXED.put(externalId, docid);
+			return docid;
+		}
+	}
+
+	private static double log2(double x) {
+		return Math.log(x) / Math.log(2);
+	}
+}
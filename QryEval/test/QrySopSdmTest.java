@@ -0,0 +1,73 @@
+import java.util.*;
+
+/**
+ *  Checks SDM queries that are left with one term, e.g. #SDM (obama) or
+ *  #SDM (the obama) once the stopword is removed.  With no bigrams, the
+ *  SDM score is the unigram component alone, so each query must return
+ *  the same documents and scores as the same query with #AND.  Run it
+ *  with "-index INDEX_PATH"; it exits with status 1 if a check fails.
+ */
+public class QrySopSdmTest {
+
+	private static final String[][] QUERIES = {
+		{ "#sdm(obama)", "#and(obama)" },
+		{ "#sdm(the obama)", "#and(obama)" },
+		{ "#and(#sdm(obama) tree)", "#and(obama tree)" },
+		{ "#wand(0.7 #sdm(the obama) 0.3 tree)", "#wand(0.7 obama 0.3 tree)" },
+	};
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2 || !args[0].equals("-index")) {
+			System.err.println("Usage:  java QrySopSdmTest -index INDEX_PATH");
+			System.exit(1);
+		}
+
+		Idx.initialize(args[1]);
+		RetrievalModel model = new RetrievalModelIndri(2500, 0.4);
+		int failures = 0;
+
+		for (String[] pair : QUERIES) {
+			String error = null;
+			try {
+				error = compare(QryEval.processQuery(pair[0], model),
+						QryEval.processQuery(pair[1], model));
+			} catch (RuntimeException e) {
+				error = e.toString();
+			}
+
+			if (error == null) {
+				System.out.println("PASS " + pair[0]);
+			} else {
+				System.out.println("FAIL " + pair[0] + ": " + error);
+				failures++;
+			}
+		}
+
+		System.exit((failures == 0) ? 0 : 1);
+	}
+
+	//  Compare the documents and scores of two results, or return null if
+	//  they match.
+	private static String compare(ScoreList r, ScoreList expected) {
+		if (r == null || expected == null)
+			return "no results";
+		if (r.size() != expected.size())
+			return r.size() + " documents, expected " + expected.size();
+		if (r.size() == 0)
+			return "no matching documents";
+
+		Map<Integer, Double> scores = new HashMap<Integer, Double>();
+		for (int i = 0; i < expected.size(); i++)
+			scores.put(expected.getDocid(i), expected.getDocidScore(i));
+
+		for (int i = 0; i < r.size(); i++) {
+			Double score = scores.get(r.getDocid(i));
+			if (score == null)
+				return "unexpected docid " + r.getDocid(i);
+			if (Math.abs(score - r.getDocidScore(i)) > 1e-9 * Math.abs(score))
+				return "docid " + r.getDocid(i) + " scored " + r.getDocidScore(i)
+						+ ", expected " + score;
+		}
+		return null;
+	}
+}
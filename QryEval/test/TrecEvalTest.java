@@ -0,0 +1,63 @@
+import java.util.*;
+
+/**
+ *  Checks TrecEval against a small qrels and run fixture, whose expected
+ *  values were computed by hand the way trec_eval does.  The fixture
+ *  covers a run that is not sorted by score, a score tie (broken by
+ *  docid in decreasing order), a relevant document that isn't
+ *  retrieved, and queries without judgments or without a ranking.  No
+ *  index is open, so every document is "not in the index" and gets its
+ *  own docid.  Run it with the qrels and run files; it exits with
+ *  status 1 if a check fails.
+ */
+public class TrecEvalTest {
+
+	//  map, P_10, P_20, P_30 and ndcg_cut_20 of each query, then the means
+	private static final String[] QIDS = { "1", "2" };
+	private static final double[][] EXPECTED = {
+		{ 0.277778, 0.2, 0.1, 0.066667, 0.434808 },
+		{ 1.0, 0.1, 0.05, 0.033333, 1.0 },
+	};
+	private static final double[] EXPECTED_MEAN =
+		{ 0.638889, 0.15, 0.075, 0.05, 0.717404 };
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.err.println("Usage:  java TrecEvalTest QRELS_FILE RUN_FILE");
+			System.exit(1);
+		}
+
+		TrecEval trecEval = new TrecEval(args[0], 20);
+		Map<String, double[]> perQuery = trecEval.evaluate(TrecEval.readRun(args[1]));
+		int failures = 0;
+
+		if (!perQuery.keySet().equals(new TreeSet<String>(Arrays.asList(QIDS)))) {
+			System.out.println("FAIL evaluated queries " + perQuery.keySet());
+			failures++;
+		}
+		for (int q = 0; q < QIDS.length; q++)
+			failures += check("query " + QIDS[q], perQuery.get(QIDS[q]), EXPECTED[q]);
+		failures += check("mean", TrecEval.mean(perQuery), EXPECTED_MEAN);
+
+		System.exit((failures == 0) ? 0 : 1);
+	}
+
+	private static int check(String name, double[] measures, double[] expected) {
+		if (measures == null) {
+			System.out.println("FAIL " + name + ": not evaluated");
+			return 1;
+		}
+
+		int failures = 0;
+		for (int m = 0; m < expected.length; m++) {
+			if (Math.abs(measures[m] - expected[m]) > 1e-6) {
+				System.out.println("FAIL " + name + " " + TrecEval.MEASURES[m] + ": "
+						+ measures[m] + ", expected " + expected[m]);
+				failures++;
+			}
+		}
+		if (failures == 0)
+			System.out.println("PASS " + name);
+		return failures;
+	}
+}